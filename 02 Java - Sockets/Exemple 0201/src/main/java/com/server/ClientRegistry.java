@@ -3,6 +3,7 @@ package com.server;
 import org.java_websocket.WebSocket;
 import org.json.JSONArray;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
@@ -19,9 +20,13 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * També integra la lògica d'un pool de noms disponibles. Quan un client es connecta,
  * se li assigna un nom lliure. Quan es desconnecta, el nom torna al pool per ser reutilitzat.
  *
+ * A més dels mapes, manté un array de connexions en còpia en escriptura: add() i
+ * remove() el recreen, i els recorreguts (broadcasts, mètriques) el llegeixen sense
+ * copiar res ni bloquejar.
+ *
  * Aquesta classe és segura per a ús concurrent gràcies a l'ús de ConcurrentHashMap
- * i ConcurrentLinkedQueue. Els mètodes que modifiquen el pool utilitzen sincronització
- * per garantir la coherència durant reinicialitzacions.
+ * i ConcurrentLinkedQueue. Els mètodes que modifiquen el registre o el pool utilitzen
+ * sincronització per garantir la coherència entre els mapes i l'array.
  */
 final class ClientRegistry {
 
@@ -31,6 +36,14 @@ final class ClientRegistry {
     /** Mapa de noms de client a sockets. */
     private final Map<String, WebSocket> byName = new ConcurrentHashMap<>();
 
+    /** Connexió registrada: socket i nom assignat. */
+    record Connection(WebSocket socket, String name) {}
+
+    private static final Connection[] NO_CONNECTIONS = new Connection[0];
+
+    /** Connexions actuals; l'array no es modifica mai, es substitueix sencer. */
+    private volatile Connection[] connections = NO_CONNECTIONS;
+
     /** Cua de noms disponibles per assignar. */
     private final Queue<String> pool = new ConcurrentLinkedQueue<>();
 
@@ -87,10 +100,16 @@ final class ClientRegistry {
      * @param socket socket del client connectat
      * @return el nom assignat al client
      */
-    String add(WebSocket socket) {
+    synchronized String add(WebSocket socket) {
         String name = takeOrRecycle();
-        bySocket.put(socket, name);
+        String previous = bySocket.put(socket, name);
         byName.put(name, socket);
+
+        Connection[] current = connections;
+        if (previous != null) current = without(current, socket);
+        Connection[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = new Connection(socket, name);
+        connections = next;
         return name;
     }
 
@@ -100,15 +119,29 @@ final class ClientRegistry {
      * @param socket socket del client a eliminar
      * @return el nom que estava assignat, o null si no existia
      */
-    String remove(WebSocket socket) {
+    synchronized String remove(WebSocket socket) {
         String name = bySocket.remove(socket);
         if (name != null) {
             byName.remove(name);
             giveBack(name);
+            connections = without(connections, socket);
         }
         return name;
     }
 
+    /** Còpia de l'array sense la connexió del socket indicat. */
+    private static Connection[] without(Connection[] current, WebSocket socket) {
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].socket() != socket) continue;
+            if (current.length == 1) return NO_CONNECTIONS;
+            Connection[] next = new Connection[current.length - 1];
+            System.arraycopy(current, 0, next, 0, i);
+            System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+            return next;
+        }
+        return current;
+    }
+
     /**
      * Obté el socket associat a un nom de client.
      *
@@ -153,13 +186,24 @@ final class ClientRegistry {
         return remove(socket);
     }
 
+    /** Nombre de clients registrats. */
+    int size() {
+        return connections.length;
+    }
+
+    /** Indica si no hi ha cap client registrat. */
+    boolean isEmpty() {
+        return connections.length == 0;
+    }
+
     /**
-     * Retorna una còpia immutable de l'estat actual del mapa socket a nom.
-     * Útil per iteracions fora del lock intern sense risc de ConcurrentModification.
+     * Retorna les connexions actuals sense copiar-les. L'array no canvia mai (un add()
+     * o remove() posterior en crea un de nou), així que es pot recórrer des de
+     * qualsevol fil; no s'ha de modificar.
      *
-     * @return mapa immutable de WebSocket a nom
+     * @return array de connexions en ordre d'arribada
      */
-    Map<WebSocket, String> snapshot() {
-        return Map.copyOf(bySocket);
+    Connection[] connections() {
+        return connections;
     }
 }
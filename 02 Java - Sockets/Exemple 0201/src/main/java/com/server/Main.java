@@ -8,10 +8,10 @@ import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CountDownLatch;
 
@@ -27,12 +27,17 @@ import java.util.concurrent.CountDownLatch;
  *  - private: envia a un destinatari pel seu nom
  *  - clients: llista de clients connectats
  *  - error / confirmation: missatges de control
+ *
+ * Mètriques: "/metrics" (format Prometheus) per HTTP al port METRICS_PORT (veure Metrics).
  */
 public class Main extends WebSocketServer {
 
     /** Port per defecte on escolta el servidor. */
     public static final int DEFAULT_PORT = 3000;
 
+    /** Port HTTP de "/metrics". */
+    public static final int METRICS_PORT = 9000;
+
     /** Llista de noms disponibles per als clients connectats. */
     private static final List<String> CHARACTER_NAMES = Arrays.asList(
         "Mario", "Luigi", "Peach", "Toad", "Bowser", "Wario", "Zelda", "Link"
@@ -53,10 +58,14 @@ public class Main extends WebSocketServer {
     private static final String T_CLIENTS = "clients";
     private static final String T_ERROR = "error";
     private static final String T_CONFIRMATION = "confirmation";
+    private static final String T_UNKNOWN = "unknown"; // (només mètriques)
 
     /** Registre de clients i assignació de noms (pool integrat). */
     private final ClientRegistry clients;
 
+    /** Comptadors exportats a "/metrics". */
+    private final Metrics metrics = new Metrics();
+
     /**
      * Crea un servidor WebSocket que escolta a l'adreça indicada.
      *
@@ -65,6 +74,9 @@ public class Main extends WebSocketServer {
     public Main(InetSocketAddress address) {
         super(address);
         this.clients = new ClientRegistry(CHARACTER_NAMES);
+
+        metrics.gauge("ws_connections", "Clients connectats", () -> clients.size());
+        metrics.bufferedBytes("ws_buffered_bytes", "Bytes pendents d'enviar per connexió", clients);
     }
 
     // ----------------- Helpers JSON -----------------
@@ -94,15 +106,19 @@ public class Main extends WebSocketServer {
      * Envia de forma segura un payload i, si el socket no està connectat,
      * el neteja del registre.
      *
+     * @param type tipus del missatge (per a les mètriques)
      * @param to socket destinatari
      * @param payload cadena JSON a enviar
      */
-    private void sendSafe(WebSocket to, String payload) {
+    private void sendSafe(String type, WebSocket to, String payload) {
         if (to == null) return;
         try {
             to.send(payload);
+            metrics.messageOut(type, 1, payload.length());
         } catch (WebsocketNotConnectedException e) {
+            metrics.sendFailure();
             String name = clients.cleanupDisconnected(to);
+            if (name != null) metrics.cleanup();
             System.out.println("Client desconnectat durant send: " + name);
         } catch (Exception e) {
             e.printStackTrace();
@@ -116,23 +132,26 @@ public class Main extends WebSocketServer {
      * @param payload cadena JSON a enviar
      */
     private void broadcastExcept(WebSocket sender, String payload) {
-        for (Map.Entry<WebSocket, String> e : clients.snapshot().entrySet()) {
-            WebSocket conn = e.getKey();
-            if (!Objects.equals(conn, sender)) sendSafe(conn, payload);
+        long start = System.nanoTime();
+        for (ClientRegistry.Connection c : clients.connections()) {
+            if (!Objects.equals(c.socket(), sender)) sendSafe(T_BROADCAST, c.socket(), payload);
         }
+        metrics.fanoutSeconds.observeNanos(System.nanoTime() - start);
     }
 
     /**
      * Envia la llista actualitzada de clients a tots els clients connectats.
      */
     private void sendClientsListToAll() {
+        long start = System.nanoTime();
         JSONArray list = clients.currentNames();
-        for (Map.Entry<WebSocket, String> e : clients.snapshot().entrySet()) {
+        for (ClientRegistry.Connection c : clients.connections()) {
             JSONObject rst = msg(T_CLIENTS);
-            put(rst, K_ID, e.getValue());
+            put(rst, K_ID, c.name());
             put(rst, K_LIST, list);
-            sendSafe(e.getKey(), rst.toString());
+            sendSafe(T_CLIENTS, c.socket(), rst.toString());
         }
+        metrics.fanoutSeconds.observeNanos(System.nanoTime() - start);
     }
 
     // ----------------- WebSocketServer overrides -----------------
@@ -161,15 +180,20 @@ public class Main extends WebSocketServer {
         try {
             obj = new JSONObject(message);
         } catch (Exception ex) {
-            sendSafe(conn, msg(T_ERROR).put(K_MESSAGE, "JSON invàlid").toString());
+            metrics.messageIn(T_UNKNOWN, message.length());
+            sendSafe(T_ERROR, conn, msg(T_ERROR).put(K_MESSAGE, "JSON invàlid").toString());
             return;
         }
 
         String type = obj.optString(K_TYPE, "");
+        switch (type) {
+            case T_BOUNCE, T_BROADCAST, T_PRIVATE -> metrics.messageIn(type, message.length());
+            default -> metrics.messageIn(T_UNKNOWN, message.length());
+        }
         switch (type) {
             case T_BOUNCE -> {
                 String txt = obj.optString(K_MESSAGE, "");
-                sendSafe(conn, msg(T_BOUNCE).put(K_MESSAGE, txt).toString());
+                sendSafe(T_BOUNCE, conn, msg(T_BOUNCE).put(K_MESSAGE, txt).toString());
             }
             case T_BROADCAST -> {
                 String txt = obj.optString(K_MESSAGE, "");
@@ -179,24 +203,24 @@ public class Main extends WebSocketServer {
             case T_PRIVATE -> {
                 String destName = obj.optString(K_DESTINATION, "");
                 if (destName.isBlank()) {
-                    sendSafe(conn, msg(T_ERROR).put(K_MESSAGE, "Falta 'destination'").toString());
+                    sendSafe(T_ERROR, conn, msg(T_ERROR).put(K_MESSAGE, "Falta 'destination'").toString());
                     return;
                 }
                 WebSocket dest = clients.socketByName(destName);
                 if (dest == null) {
-                    sendSafe(conn, msg(T_ERROR).put(K_MESSAGE, "Client " + destName + " no disponible.").toString());
+                    sendSafe(T_ERROR, conn, msg(T_ERROR).put(K_MESSAGE, "Client " + destName + " no disponible.").toString());
                     return;
                 }
                 String txt = obj.optString(K_MESSAGE, "");
-                sendSafe(dest, msg(T_PRIVATE)
+                sendSafe(T_PRIVATE, dest, msg(T_PRIVATE)
                         .put(K_ORIGIN, origin)
                         .put(K_DESTINATION, destName)
                         .put(K_MESSAGE, txt)
                         .toString());
-                sendSafe(conn, msg(T_CONFIRMATION).put(K_MESSAGE, "Missatge enviat a " + destName).toString());
+                sendSafe(T_CONFIRMATION, conn, msg(T_CONFIRMATION).put(K_MESSAGE, "Missatge enviat a " + destName).toString());
             }
             default -> {
-                sendSafe(conn, msg(T_ERROR).put(K_MESSAGE, "Tipus desconegut: " + type).toString());
+                sendSafe(T_ERROR, conn, msg(T_ERROR).put(K_MESSAGE, "Tipus desconegut: " + type).toString());
             }
         }
     }
@@ -225,6 +249,7 @@ public class Main extends WebSocketServer {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Aturant servidor (shutdown hook)...");
             try {
+                server.metrics.stop();
                 server.stop(1000);
             } catch (InterruptedException e) {
                 e.printStackTrace();
@@ -255,6 +280,12 @@ public class Main extends WebSocketServer {
     public static void main(String[] args) {
         Main server = new Main(new InetSocketAddress(DEFAULT_PORT));
         server.start();
+        try {
+            server.metrics.start(METRICS_PORT);
+            System.out.println("Mètriques a http://localhost:" + METRICS_PORT + "/metrics");
+        } catch (IOException e) {
+            System.err.println("No s'ha pogut obrir el port de mètriques: " + e.getMessage());
+        }
         registerShutdownHook(server);
 
         System.out.println("Servidor WebSocket en execució al port " + DEFAULT_PORT + ". Prem Ctrl+C per aturar-lo.");
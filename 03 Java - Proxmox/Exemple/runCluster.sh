@@ -0,0 +1,35 @@
+#!/bin/bash
+
+# Arrenca N processos servidor (ports 3001..3000+N) i la passarel·la al port 3000.
+# Ús: ./runCluster.sh [N]
+
+N=${1:-2}
+GATEWAY_PORT=3000
+JAR_PATH="./target/server-package.jar"
+
+if [[ ! -f "$JAR_PATH" ]]; then
+    echo "Generant el fitxer JAR..."
+    ./run.sh com.server.Main build
+fi
+
+if [[ ! -f "$JAR_PATH" ]]; then
+    echo "Error: No s'ha trobat l'arxiu JAR: $JAR_PATH"
+    exit 1
+fi
+
+PIDS=()
+trap 'echo "Aturant el clúster..."; kill ${PIDS[@]} 2>/dev/null; wait' EXIT INT TERM
+
+BACKENDS=()
+for ((i = 1; i <= N; i++)); do
+    PORT=$((GATEWAY_PORT + i))
+    java -cp "$JAR_PATH" com.server.Main "$PORT" &
+    PIDS+=($!)
+    BACKENDS+=("$PORT")
+done
+
+java -cp "$JAR_PATH" com.gateway.Main "$GATEWAY_PORT" "${BACKENDS[@]}" &
+PIDS+=($!)
+
+echo "Clúster en marxa: passarel·la $GATEWAY_PORT -> servidors ${BACKENDS[*]}. Prem Ctrl+C per aturar-lo."
+wait
@@ -0,0 +1,22 @@
+#!/bin/bash
+
+# Prova de càrrega amb bots sense interfície contra un servidor (o la passarel·la).
+# Ús: ./runLoad.sh [url] [--bots=N] [--rate=missatges/s] [--objects=fracció]
+#                  [--duration=s] [--ramp=connexions/s] [--report=s] [--binary]
+#                  [--deflate]
+# Exemple: ./runLoad.sh ws://localhost:3000 --bots=2000 --duration=120
+
+JAR_PATH="./target/server-package.jar"
+
+if [[ ! -f "$JAR_PATH" ]]; then
+    echo "Generant el fitxer JAR..."
+    ./run.sh com.server.Main build
+fi
+
+if [[ ! -f "$JAR_PATH" ]]; then
+    echo "Error: No s'ha trobat l'arxiu JAR: $JAR_PATH"
+    exit 1
+fi
+
+# Cada connexió fa servir dos fils: es redueix la pila per poder-ne obrir milers
+java -Xss256k -cp "$JAR_PATH" com.loadtest.Main "$@"
@@ -0,0 +1,20 @@
+#!/bin/bash
+
+# Reprodueix un enregistrament de trànsit (servidor arrencat amb --record=<fitxer>)
+# en un servidor sense xarxa i mostra la durada dels ticks.
+# Ús: ./runReplay.sh fitxer [--speed=x] [--metrics=fitxer]
+# Exemple: ./runReplay.sh partida.rec --speed=0
+
+JAR_PATH="./target/server-package.jar"
+
+if [[ ! -f "$JAR_PATH" ]]; then
+    echo "Generant el fitxer JAR..."
+    ./run.sh com.server.Main build
+fi
+
+if [[ ! -f "$JAR_PATH" ]]; then
+    echo "Error: No s'ha trobat l'arxiu JAR: $JAR_PATH"
+    exit 1
+fi
+
+java -cp "$JAR_PATH" com.server.Replay "$@"
@@ -0,0 +1,47 @@
+package com.server;
+
+import java.lang.reflect.Proxy;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft_6455;
+
+/**
+ * Connexions falses per als benchmarks: no tenen socket i descarten el que s'hi envia.
+ *
+ * Fan servir la identitat com a equals/hashCode (igual que WebSocketImpl) i tornen un
+ * Draft_6455 compartit, de manera que WebSocketServer.broadcast() hi genera els frames
+ * com amb una connexió real.
+ */
+final class BenchSockets {
+
+    private static final Draft_6455 DRAFT = new Draft_6455();
+
+    private BenchSockets() {}
+
+    static WebSocket create() {
+        return (WebSocket) Proxy.newProxyInstance(
+                WebSocket.class.getClassLoader(),
+                new Class<?>[] { WebSocket.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "toString" -> "BenchSocket@" + Integer.toHexString(System.identityHashCode(proxy));
+                    case "getDraft" -> DRAFT;
+                    case "isOpen" -> true;
+                    default -> defaultValue(method.getReturnType());
+                });
+    }
+
+    static WebSocket[] create(int n) {
+        WebSocket[] sockets = new WebSocket[n];
+        for (int i = 0; i < n; i++) sockets[i] = create();
+        return sockets;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        return null;
+    }
+}
@@ -0,0 +1,104 @@
+package com.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.framing.Framedata;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.shared.ClientData;
+import com.shared.GameObject;
+
+/**
+ * Cost per tick de preparar el "serverData" per a N connexions.
+ *
+ * - perConnection: comportament anterior. Es posa el nom del client al JSON compartit,
+ *   es serialitza i es generen els frames un cop per connexió.
+ * - serializeOnce: comportament actual. El cos es serialitza i es codifica en frames un
+ *   sol cop, però per connexió encara es crea el buffer de sortida: createBinaryFrame()
+ *   reserva capçalera + càrrega i hi copia la càrrega sencera. És el que fa broadcast()
+ *   a Java-WebSocket 1.5.3 (WebSocketImpl.send crida createBinaryFrame per a cada
+ *   connexió), així que per tick queda una serialització i N còpies del cos.
+ *
+ * Cada connexió és també un client del món, així que la mida del cos creix amb N.
+ * Execució: mvn -Pjmh compile exec:exec -Djmh.args="BroadcastBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    /** Nombre de connexions (i de clients al món). */
+    @Param({ "10", "100", "1000" })
+    public int connections;
+
+    private final Draft_6455 draft = new Draft_6455();
+    private List<String> names;
+    private JSONArray arrClients;
+    private JSONArray arrObjects;
+
+    @Setup
+    public void setup() {
+        names = new ArrayList<>();
+        arrClients = new JSONArray();
+        for (int i = 0; i < connections; i++) {
+            String name = "Client" + i;
+            names.add(name);
+            arrClients.put(new ClientData(name, "GREEN", i, i * 2, i % 10, i % 10).toJSON());
+        }
+        arrObjects = new JSONArray();
+        arrObjects.put(new GameObject("O0", 300, 50, 4, 1).toJSON());
+        arrObjects.put(new GameObject("O1", 300, 100, 1, 3).toJSON());
+    }
+
+    private JSONObject body() {
+        return new JSONObject()
+                .put("type", "serverData")
+                .put("tick", 1L)
+                .put("baseTick", -1L)
+                .put("clientsList", arrClients)
+                .put("objectsList", arrObjects);
+    }
+
+    @Benchmark
+    public void perConnection(Blackhole bh) {
+        JSONObject rst = body();
+        for (String name : names) {
+            rst.put("clientName", name);
+            List<Framedata> frames = draft.createFrames(rst.toString(), false);
+            for (Framedata f : frames) {
+                bh.consume(draft.createBinaryFrame(f));
+            }
+        }
+    }
+
+    @Benchmark
+    public void serializeOnce(Blackhole bh) {
+        List<Framedata> frames = draft.createFrames(body().toString(), false);
+        for (int i = 0; i < names.size(); i++) {
+            for (Framedata f : frames) {
+                ByteBuffer out = draft.createBinaryFrame(f);
+                bh.consume(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.WebSocket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ClientRegistry amb connexions i desconnexions concurrents amb les consultes.
+ *
+ * Tots els fils comparteixen un registre amb 'clients' connexions fixes:
+ * - churn (2 fils): una connexió pròpia que entra i surt (add + remove).
+ * - lookup (4 fils): nameBySocket d'una connexió fixa qualsevol (com cada send).
+ * - connections (1 fil): recorregut de totes les connexions (com cada broadcast del xat).
+ *
+ * JMH dona el temps de cada operació amb els altres fils en marxa.
+ * Execució: mvn -Pjmh compile exec:exec -Djmh.args="ClientRegistryBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientRegistryBenchmark {
+
+    @State(Scope.Group)
+    public static class Shared {
+
+        /** Connexions sempre presents al registre. */
+        @Param({ "10", "1000" })
+        public int clients;
+
+        ClientRegistry registry;
+        WebSocket[] connected;
+
+        @Setup
+        public void setup() {
+            // Prou noms perquè el pool no s'esgoti (i no es repeteixin noms)
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < clients + 64; i++) names.add("Client" + i);
+            registry = new ClientRegistry(names);
+            connected = BenchSockets.create(clients);
+            for (WebSocket conn : connected) registry.add(conn);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Own {
+        final WebSocket conn = BenchSockets.create();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public String churn(Shared s, Own own) {
+        s.registry.add(own.conn);
+        return s.registry.remove(own.conn);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public String lookup(Shared s) {
+        WebSocket conn = s.connected[ThreadLocalRandom.current().nextInt(s.connected.length)];
+        return s.registry.nameBySocket(conn);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public int connections(Shared s) {
+        int n = 0;
+        for (ClientRegistry.Connection c : s.registry.connections()) {
+            if (c.socket() != null) n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,130 @@
+package com.server;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.InvalidHandshakeException;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.java_websocket.protocols.Protocol;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.shared.ClientData;
+import com.shared.DeflateExtension;
+import com.shared.GameObject;
+
+/**
+ * Amplada de banda contra CPU de permessage-deflate en el broadcast d'un "serverData"
+ * a N connexions (cada connexió amb el seu Draft_6455 negociat, com al servidor).
+ *
+ * - deflate=off: sense extensió.
+ * - deflate=shared: DeflateExtension; el frame es comprimeix un cop i la resta de
+ *   connexions el reutilitzen (el que fa broadcast()).
+ * - deflate=perConnection: es generen i es comprimeixen els frames per a cada
+ *   connexió, com passaria enviant amb send() un a un.
+ *
+ * message=keyframe és l'estat complet (N cursors i OBJECTS objectes); message=cursor
+ * és el delta d'un sol cursor, per sota del llindar, que no es comprimeix.
+ *
+ * El temps és per tick (un broadcast); en preparar cada cas s'escriuen els bytes que
+ * surten per tick sumant totes les connexions i el que suposa a 30 FPS.
+ * Execució: mvn -Pjmh compile exec:exec -Djmh.args="DeflateBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeflateBenchmark {
+
+    private static final int OBJECTS = 20;
+
+    @Param({ "2", "20", "200" })
+    public int clients;
+
+    @Param({ "off", "shared", "perConnection" })
+    public String deflate;
+
+    @Param({ "keyframe", "cursor" })
+    public String message;
+
+    private Draft_6455[] drafts;
+    private String body;
+
+    @Setup
+    public void setup() throws InvalidHandshakeException {
+        DeflateExtension.Stats stats = new DeflateExtension.Stats();
+        Draft_6455 server = "off".equals(deflate)
+                ? new Draft_6455()
+                : new Draft_6455(List.of(new DeflateExtension(DeflateExtension.DEFAULT_THRESHOLD, stats)),
+                        List.of(new Protocol("")));
+        drafts = new Draft_6455[clients];
+        for (int i = 0; i < clients; i++) {
+            HandshakeImpl1Client handshake = new HandshakeImpl1Client();
+            handshake.setResourceDescriptor("/");
+            handshake.put("Sec-WebSocket-Version", "13");
+            handshake.put("Sec-WebSocket-Extensions", "permessage-deflate");
+            drafts[i] = (Draft_6455) server.copyInstance();
+            drafts[i].acceptHandshakeAsServer(handshake);
+        }
+
+        JSONArray arrClients = new JSONArray();
+        int listed = "keyframe".equals(message) ? clients : 1;
+        for (int i = 0; i < listed; i++) {
+            arrClients.put(new ClientData("Client" + i, "GREEN", 37 * i % 800, 23 * i % 600, i % 10, i % 10).toJSON());
+        }
+        JSONArray arrObjects = new JSONArray();
+        if ("keyframe".equals(message)) {
+            for (int i = 0; i < OBJECTS; i++) {
+                arrObjects.put(new GameObject("O" + i, 40 * i, 25 * i, 1 + i % 4, 1 + i % 3).toJSON());
+            }
+        }
+        body = new JSONObject()
+                .put("type", "serverData")
+                .put("tick", 1234L)
+                .put("baseTick", "keyframe".equals(message) ? -1L : 1233L)
+                .put("clientsList", arrClients)
+                .put("objectsList", arrObjects)
+                .toString();
+
+        System.out.printf(Locale.ROOT, "%n%s, %d clients, deflate=%s: %d bytes de JSON, %d bytes per tick (%.1f KB/s a 30 FPS)%n",
+                message, clients, deflate, body.length(), broadcast(), broadcast() * 30 / 1024.0);
+    }
+
+    @Benchmark
+    public long broadcast() {
+        long bytes = 0;
+        if ("perConnection".equals(deflate)) {
+            for (Draft_6455 d : drafts) {
+                for (Framedata f : d.createFrames(body, false)) bytes += send(d, f);
+            }
+        } else {
+            List<Framedata> frames = drafts[0].createFrames(body, false);
+            for (Draft_6455 d : drafts) {
+                for (Framedata f : frames) bytes += send(d, f);
+            }
+        }
+        return bytes;
+    }
+
+    private static int send(Draft_6455 draft, Framedata frame) {
+        ByteBuffer out = draft.createBinaryFrame(frame);
+        return out.remaining();
+    }
+}
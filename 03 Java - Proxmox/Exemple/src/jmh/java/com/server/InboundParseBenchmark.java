@@ -0,0 +1,82 @@
+package com.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.shared.ClientData;
+import com.shared.GameObject;
+
+/**
+ * Cost de llegir un missatge d'entrada (un clientMouseMoving i un clientObjectMoving).
+ *
+ * - jsonTree: comportament anterior. Arbre JSONObject complet i ClientData/GameObject nous.
+ * - streaming: comportament actual. InputScanner reutilitzat i còpia dels camps a slots
+ *   preassignats (com fa Room amb InputSlot i ObjectSlot).
+ *
+ * Per veure la memòria reservada (gc.alloc.rate.norm, en B/op):
+ *   mvn -Pjmh compile exec:exec -Djmh.args="InboundParseBenchmark -prof gc"
+ * Cada op llegeix dos missatges (el del cursor i el de l'objecte), així que a
+ * 10.000 missatges/s la taxa d'assignació és B/op x 5.000 B/s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InboundParseBenchmark {
+
+    private String mouseMessage;
+    private String objectMessage;
+
+    private final InputScanner scanner = new InputScanner();
+    private final InputSlot mouseSlot = new InputSlot();
+    private final ObjectSlot objectSlot = new ObjectSlot("O0");
+
+    @Setup
+    public void setup() {
+        mouseMessage = new JSONObject()
+                .put(Main.K_TYPE, Main.T_CLIENT_MOUSE_MOVING)
+                .put(Main.K_VALUE, new ClientData("Bulbasaur", "GREEN", 312, 187, 6, 11).toJSON())
+                .toString();
+        objectMessage = new JSONObject()
+                .put(Main.K_TYPE, Main.T_CLIENT_OBJECT_MOVING)
+                .put(Main.K_VALUE, new GameObject("O0", 150, 75, 4, 1).toJSON())
+                .toString();
+    }
+
+    @Benchmark
+    public void jsonTree(Blackhole bh) {
+        JSONObject mouse = new JSONObject(mouseMessage);
+        if (Main.T_CLIENT_MOUSE_MOVING.equals(mouse.optString(Main.K_TYPE, ""))) {
+            bh.consume(ClientData.fromJSON(mouse.getJSONObject(Main.K_VALUE)));
+        }
+        JSONObject object = new JSONObject(objectMessage);
+        if (Main.T_CLIENT_OBJECT_MOVING.equals(object.optString(Main.K_TYPE, ""))) {
+            bh.consume(GameObject.fromJSON(object.getJSONObject(Main.K_VALUE)));
+        }
+    }
+
+    @Benchmark
+    public void streaming(Blackhole bh) {
+        InputScanner in = scanner;
+        if (in.parse(mouseMessage) && in.typeIs(Main.T_CLIENT_MOUSE_MOVING)) {
+            bh.consume(mouseSlot.offerMouse(in.mouseX, in.mouseY, in.row, in.col));
+        }
+        if (in.parse(objectMessage) && in.typeIs(Main.T_CLIENT_OBJECT_MOVING) && in.idIs(objectSlot.id)) {
+            bh.consume(objectSlot.offer(in.x, in.y, in.cols, in.rows));
+        }
+    }
+}
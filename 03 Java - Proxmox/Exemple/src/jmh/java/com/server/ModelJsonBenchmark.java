@@ -0,0 +1,68 @@
+package com.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.shared.ClientData;
+import com.shared.GameObject;
+
+/**
+ * Cost de convertir els models compartits a JSON i de tornada.
+ *
+ * - *ToJSON: el JSONObject d'una entitat, com el que s'afegeix a cada "serverData".
+ * - *FromJSON: l'entitat a partir d'un JSONObject ja llegit (sense el parse del text).
+ *
+ * Execució: mvn -Pjmh compile exec:exec -Djmh.args="ModelJsonBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelJsonBenchmark {
+
+    private ClientData client;
+    private GameObject object;
+    private JSONObject clientJson;
+    private JSONObject objectJson;
+
+    @Setup
+    public void setup() {
+        client = new ClientData("Bulbasaur", "GREEN", 312, 187, 6, 11);
+        object = new GameObject("O0", 150, 75, 4, 1);
+        clientJson = client.toJSON();
+        objectJson = object.toJSON();
+    }
+
+    @Benchmark
+    public JSONObject clientToJSON() {
+        return client.toJSON();
+    }
+
+    @Benchmark
+    public ClientData clientFromJSON() {
+        return ClientData.fromJSON(clientJson);
+    }
+
+    @Benchmark
+    public JSONObject objectToJSON() {
+        return object.toJSON();
+    }
+
+    @Benchmark
+    public GameObject objectFromJSON() {
+        return GameObject.fromJSON(objectJson);
+    }
+}
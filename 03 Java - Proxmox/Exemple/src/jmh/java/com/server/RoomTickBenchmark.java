@@ -0,0 +1,101 @@
+package com.server;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.WebSocket;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.shared.GameObject;
+
+/**
+ * Cost d'un tick de sala (Room.tick()): aplicar les entrades, construir el "serverData"
+ * i generar-ne els frames per a totes les connexions amb WebSocketServer.broadcast().
+ *
+ * Les connexions són BenchSockets (JSON, sense viewport) i descarten els frames.
+ * - keyframe: cap client confirma cap tick, i tots reben l'estat complet.
+ * - delta: tots confirmen l'últim tick i entre tick i tick es mou l'1% dels cursors
+ *   i dels objectes (com a mínim un de cada).
+ *
+ * Execució: mvn -Pjmh compile exec:exec -Djmh.args="RoomTickBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoomTickBenchmark {
+
+    /** Connexions (i cursors) de la sala. */
+    @Param({ "2", "100", "1000" })
+    public int clients;
+
+    /** Objectes del món. */
+    @Param({ "2", "1000", "10000", "100000" })
+    public int objects;
+
+    private Room room;
+    private WebSocket[] conns;
+    private long tick;
+    private int step;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Main server = Main.create(new InetSocketAddress(0)); // no s'arrenca: només fa els enviaments
+        room = new Room("bench", false, clients + 1, server);    // mai plena: sense compte enrere
+
+        JSONArray arrObjects = new JSONArray();
+        for (int i = 0; i < objects; i++) arrObjects.put(object(i, 0).toJSON());
+        room.restore(new JSONObject().put(Main.K_OBJECTS_LIST, arrObjects));
+
+        conns = BenchSockets.create(clients);
+        for (int i = 0; i < clients; i++) {
+            room.join(conns[i], "Client" + i, "GREEN");
+            room.mouseMoving(conns[i], i % 400, i / 400, 0, 0, 0);
+        }
+        room.tick();
+        tick = 1;
+    }
+
+    @Benchmark
+    public boolean keyframe() {
+        return room.tick();
+    }
+
+    @Benchmark
+    public boolean delta() {
+        step++;
+        int movedClients = Math.max(1, clients / 100);
+        for (int i = 0; i < movedClients; i++) {
+            int c = (step * movedClients + i) % clients;
+            room.mouseMoving(conns[c], step % 400, c / 400, 0, 0, 0);
+        }
+        int movedObjects = Math.max(1, objects / 100);
+        for (int i = 0; i < movedObjects; i++) {
+            room.objectMoving(object((step * movedObjects + i) % objects, step));
+        }
+        for (WebSocket conn : conns) room.ack(conn, tick);
+
+        boolean alive = room.tick();
+        tick++;
+        return alive;
+    }
+
+    private static GameObject object(int i, int shift) {
+        return new GameObject("O" + i, (i % 100) * 25 + shift % 25, (i / 100) * 25, 1, 1);
+    }
+}
@@ -0,0 +1,125 @@
+package com.client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.shared.BinaryCodec;
+import com.shared.ClientData;
+import com.shared.GameObject;
+
+// Rebuilds the server world from 'serverData' keyframes and deltas.
+// Only the WebSocket thread uses it; the JavaFX thread gets immutable snapshots (see snapshot())
+public class ClientWorld {
+
+    // The world after one message. Entities are never modified once decoded, so it can be shared
+    public record Snapshot(long tick, List<ClientData> clients, List<GameObject> objects) {}
+
+    private final Map<String, ClientData> clients = new LinkedHashMap<>();
+    private final Map<String, GameObject> objects = new LinkedHashMap<>();
+    private long tick = -1;
+
+    // Applies a JSON 'serverData' message, returns false if it was ignored
+    public boolean apply(JSONObject msgObj) {
+        long msgTick = msgObj.optLong("tick", -1);
+        long baseTick = msgObj.optLong("baseTick", -1);
+
+        if (!accepts(msgTick, baseTick)) {
+            return false;
+        }
+
+        JSONArray removedClients = msgObj.optJSONArray("removedClients");
+        if (removedClients != null) {
+            for (int i = 0; i < removedClients.length(); i++) {
+                clients.remove(removedClients.getString(i));
+            }
+        }
+
+        JSONArray removedObjects = msgObj.optJSONArray("removedObjects");
+        if (removedObjects != null) {
+            for (int i = 0; i < removedObjects.length(); i++) {
+                objects.remove(removedObjects.getString(i));
+            }
+        }
+
+        JSONArray arrClients = msgObj.getJSONArray("clientsList");
+        for (int i = 0; i < arrClients.length(); i++) {
+            ClientData cd = ClientData.fromJSON(arrClients.getJSONObject(i));
+            clients.put(cd.name, cd);
+        }
+
+        JSONArray arrObjects = msgObj.getJSONArray("objectsList");
+        for (int i = 0; i < arrObjects.length(); i++) {
+            GameObject go = GameObject.fromJSON(arrObjects.getJSONObject(i));
+            objects.put(go.id, go);
+        }
+
+        tick = msgTick;
+        return true;
+    }
+
+    // Applies a binary 'serverData' message (see BinaryCodec.encodeServerData)
+    public boolean apply(BinaryCodec.Reader in) {
+        long msgTick = in.getVarLong();
+        long baseTick = in.getVarLong() - 1;
+
+        if (!accepts(msgTick, baseTick)) {
+            return false;
+        }
+
+        // Upserts come first in the binary layout, so removals are read afterwards
+        List<ClientData> newClients = new ArrayList<>();
+        for (int i = in.getCount(); i > 0; i--) {
+            newClients.add(in.getClient());
+        }
+        List<GameObject> newObjects = new ArrayList<>();
+        for (int i = in.getCount(); i > 0; i--) {
+            newObjects.add(in.getObject());
+        }
+        for (int i = in.getCount(); i > 0; i--) {
+            clients.remove(in.getString());
+        }
+        for (int i = in.getCount(); i > 0; i--) {
+            objects.remove(in.getString());
+        }
+        for (ClientData cd : newClients) {
+            clients.put(cd.name, cd);
+        }
+        for (GameObject go : newObjects) {
+            objects.put(go.id, go);
+        }
+
+        tick = msgTick;
+        return true;
+    }
+
+    // Keyframes reset the world, deltas need a base we already have
+    private boolean accepts(long msgTick, long baseTick) {
+        if (baseTick < 0) {
+            clients.clear();
+            objects.clear();
+            return true;
+        }
+        return tick >= 0 && msgTick > tick && baseTick <= tick;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(tick, List.copyOf(clients.values()), List.copyOf(objects.values()));
+    }
+
+    public List<ClientData> getClients() {
+        return new ArrayList<>(clients.values());
+    }
+
+    public List<GameObject> getObjects() {
+        return new ArrayList<>(objects.values());
+    }
+}
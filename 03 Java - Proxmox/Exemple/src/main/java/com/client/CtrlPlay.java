@@ -1,22 +1,52 @@
 package com.client;
 
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
-
-import org.json.JSONObject;
+import java.util.Set;
 
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.canvas.Canvas;
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
+import javafx.scene.transform.Transform;
 
+import com.shared.BinaryCodec;
+import com.shared.Board;
 import com.shared.ClientData;
 import com.shared.GameObject;
 
 public class CtrlPlay implements Initializable {
 
+    // Frames are paced to this rate (see PlayTimer); F3 shows the frame-time overlay, F4 saves it as CSV
+    private static final double TARGET_FPS = 60;
+
+    // Player colors, solid (cursor) and translucent (hovered cell), built once instead of per frame
+    private static final Map<String, Color> COLORS = new HashMap<>();
+    private static final Map<String, Color> OVER_COLORS = new HashMap<>();
+    static {
+        for (String name : BinaryCodec.PALETTE) {
+            Color base = Color.valueOf(name);
+            Color over = new Color(base.getRed(), base.getGreen(), base.getBlue(), 0.5);
+            for (String key : List.of(name, name.toLowerCase())) {
+                COLORS.put(key, base);
+                OVER_COLORS.put(key, over);
+            }
+        }
+    }
+    private static final Color UNKNOWN_COLOR = Color.LIGHTGRAY;
+    private static final Color UNKNOWN_OVER_COLOR = new Color(UNKNOWN_COLOR.getRed(), UNKNOWN_COLOR.getGreen(), UNKNOWN_COLOR.getBlue(), 0.5);
+
     @FXML
     public javafx.scene.control.Label title;
 
@@ -33,6 +63,19 @@ public class CtrlPlay implements Initializable {
 
     private GameObject selectedObject = null;
 
+    // Objects as drawn in the last frame (interpolated), so clicks hit what the user sees
+    private List<GameObject> drawnObjects = List.of();
+
+    // Static layer: the grid lines, drawn once into an image and rebuilt only on resize
+    private WritableImage gridImage = null;
+
+    // Dynamic layer: redrawn only when there is a new snapshot or input, or while interpolation
+    // and prediction are still moving things; otherwise draw() returns before sampling anything
+    private long drawnSnapshotVersion = -1;
+    private long drawnPredictionVersion = -1;
+    private boolean drawnWhileMoving = false;
+    private boolean needsRedraw = true;
+
     @Override
     public void initialize(URL url, ResourceBundle rb) {
 
@@ -49,10 +92,11 @@ public class CtrlPlay implements Initializable {
         canvas.setOnMouseReleased(this::onMouseReleased);
 
         // Define grid
-        grid = new PlayGrid(25, 25, 25, 10, 10);
+        grid = new PlayGrid(Board.START_X, Board.START_Y, Board.CELL_SIZE, Board.ROWS, Board.COLS);
 
         // Start run/draw timer bucle
-        animationTimer = new PlayTimer(this::run, this::draw, 0);
+        animationTimer = new PlayTimer(this::run, this::draw, TARGET_FPS);
+        animationTimer.setSnapshotAge(Main.snapshots::newestAgeNanos);
         start();
     }
 
@@ -63,6 +107,9 @@ public class CtrlPlay implements Initializable {
         double height = UtilsViews.parentContainer.getHeight();
         canvas.setWidth(width);
         canvas.setHeight(height);
+        gridImage = null;
+        needsRedraw = true;
+        Main.sendViewport();
     }
 
     // Start animation timer
@@ -75,6 +122,23 @@ public class CtrlPlay implements Initializable {
         animationTimer.stop();
     }
 
+    // Registered on the scene by Main, so it works whatever has the focus
+    public void onKeyPressed(KeyEvent event) {
+        if (event.getCode() == KeyCode.F3) {
+            showFPS = !showFPS;
+            needsRedraw = true;
+        } else if (event.getCode() == KeyCode.F4) {
+            Path file = Path.of("frames-" + System.currentTimeMillis() + ".csv");
+            try {
+                animationTimer.exportCSV(file);
+                System.out.println("Frame times saved to " + file.toAbsolutePath()
+                        + " (" + animationTimer.getDroppedFrames() + " dropped frames)");
+            } catch (IOException e) {
+                System.out.println("Could not save frame times: " + e.getMessage());
+            }
+        }
+    }
+
     private void setOnMouseMoved(MouseEvent event) {
         double mouseX = event.getX();
         double mouseY = event.getY();
@@ -94,13 +158,7 @@ public class CtrlPlay implements Initializable {
             grid.isPositionInsideGrid(mouseX, mouseY) ? grid.getCol(mouseX) : -1
         );
 
-        JSONObject msg = new JSONObject();
-        msg.put("type", "clientMouseMoving");
-        msg.put("value", cd.toJSON());
-
-        if (Main.wsClient != null) {
-            Main.wsClient.safeSend(msg.toString());
-        }
+        Main.queueMouseMoving(cd);
     }
 
     private void onMousePressed(MouseEvent event) {
@@ -111,7 +169,7 @@ public class CtrlPlay implements Initializable {
         selectedObject = null;
         mouseDragging = false;
 
-        for (GameObject go : Main.objects) {
+        for (GameObject go : drawnObjects) {
             if (isPositionInsideObject(mouseX, mouseY, go.x, go.y, go.col, go.row)) {
                 selectedObject = new GameObject(go.id, go.x, go.y, go.col, go.row);
                 mouseDragging = true;
@@ -129,13 +187,7 @@ public class CtrlPlay implements Initializable {
 
             selectedObject = new GameObject(selectedObject.id, (int)objX, (int)objY, (int)selectedObject.col, (int)selectedObject.row);
 
-            JSONObject msg = new JSONObject();
-            msg.put("type", "clientObjectMoving");
-            msg.put("value", selectedObject.toJSON());
-
-            if (Main.wsClient != null) {
-                Main.wsClient.safeSend(msg.toString());
-            }
+            Main.queueObjectMoving(selectedObject);
         }
         setOnMouseMoved(event);
     }
@@ -159,10 +211,9 @@ public class CtrlPlay implements Initializable {
                 snapObjectLeftTop(selectedObject);
             }
 
-            JSONObject msg = new JSONObject();
-            msg.put("type", "clientObjectMoving");
-            msg.put("value", selectedObject.toJSON());
-            if (Main.wsClient != null) Main.wsClient.safeSend(msg.toString());
+            // The drop position must not wait for the next send slot
+            Main.queueObjectMoving(selectedObject);
+            Main.flushInput(true);
 
             mouseDragging = false;
             selectedObject = null;
@@ -199,6 +250,9 @@ public class CtrlPlay implements Initializable {
     // Run game (and animations)
     private void run(double fps) {
 
+        // Send the input that was held back by the throttle
+        Main.flushInput(false);
+
         if (animationTimer.fps < 1) { return; }
 
         // Update objects and animations here
@@ -209,36 +263,53 @@ public class CtrlPlay implements Initializable {
 
         if (Main.clients == null) { return; }
 
+        long now = System.nanoTime();
+        long delay = Main.snapshots.delayNanos();
+        long snapshotVersion = Main.snapshots.version();
+        long predictionVersion = Main.prediction.version();
+        boolean moving = now < Main.snapshots.movingUntilNanos() || Main.prediction.isActive(now, delay);
+
+        // Nothing new and nothing moving: keep the canvas as it is. One more frame is drawn after
+        // the motion stops, so the canvas ends on the final positions
+        if (!needsRedraw && !showFPS && !moving && !drawnWhileMoving
+                && snapshotVersion == drawnSnapshotVersion && predictionVersion == drawnPredictionVersion) {
+            return;
+        }
+        drawnSnapshotVersion = snapshotVersion;
+        drawnPredictionVersion = predictionVersion;
+        drawnWhileMoving = moving;
+        needsRedraw = false;
+
+        // Remote cursors and objects, interpolated between the snapshots around (now - delay),
+        // with our own unacknowledged inputs applied on top
+        Set<String> local = Main.prediction.localObjects(now, delay);
+        SnapshotBuffer.Frame frame = Main.prediction.apply(Main.snapshots.sample(now, Main.clientName, local));
+        drawnObjects = frame.objects();
+
         // Clean drawing area
         gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
 
         // Draw colored 'over' cells
-        for (ClientData clientData : Main.clients) {
+        for (ClientData clientData : frame.clients()) {
             // Comprovar si està dins dels límits de la graella
             if (clientData.row >= 0 && clientData.col >= 0) {
-                Color base = getColor(clientData.color);
-                Color alpha = new Color(base.getRed(), base.getGreen(), base.getBlue(), 0.5);
-                gc.setFill(alpha); 
+                gc.setFill(getOverColor(clientData.color)); 
                 gc.fillRect(grid.getCellX(clientData.col), grid.getCellY(clientData.row), grid.getCellSize(), grid.getCellSize());
             }
         }
 
-        // Draw grid
+        // Draw grid (cached image, over the cells as before)
         drawGrid();
 
         // Draw mouse circles
-        for (ClientData clientData : Main.clients) {
+        for (ClientData clientData : frame.clients()) {
             gc.setFill(getColor(clientData.color)); 
             gc.fillOval(clientData.mouseX - 5, clientData.mouseY - 5, 10, 10);
         }
 
         // Draw objects
-        for (GameObject go : Main.objects) {
-            if (selectedObject != null && go.id.equals(selectedObject.id)) {
-                drawObject(selectedObject);
-            } else {
-                drawObject(go);
-            }
+        for (GameObject go : drawnObjects) {
+            drawObject(go);
         }
 
         // Draw FPS if needed
@@ -246,16 +317,39 @@ public class CtrlPlay implements Initializable {
     }
 
     public void drawGrid() {
-        gc.setStroke(Color.BLACK);
+        if (gridImage == null) { gridImage = renderGrid(); }
+        gc.drawImage(gridImage, 0, 0, gridImage.getWidth() / outputScale(), gridImage.getHeight() / outputScale());
+    }
 
-        for (int row = 0; row < grid.getRows(); row++) {
-            for (int col = 0; col < grid.getCols(); col++) {
-                double cellSize = grid.getCellSize();
-                double x = grid.getStartX() + col * cellSize;
-                double y = grid.getStartY() + row * cellSize;
-                gc.strokeRect(x, y, cellSize, cellSize);
-            }
+    // Grid lines on a transparent image, at the screen's scale so they stay sharp
+    private WritableImage renderGrid() {
+        double cellSize = grid.getCellSize();
+        double right = grid.getStartX() + grid.getCols() * cellSize;
+        double bottom = grid.getStartY() + grid.getRows() * cellSize;
+        double scale = outputScale();
+
+        Canvas layer = new Canvas(right + 1, bottom + 1);
+        GraphicsContext lgc = layer.getGraphicsContext2D();
+        lgc.setStroke(Color.BLACK);
+        // One line per row and column edge, the same pixels the per-cell rectangles used to cover
+        for (int row = 0; row <= grid.getRows(); row++) {
+            double y = grid.getStartY() + row * cellSize;
+            lgc.strokeLine(grid.getStartX(), y, right, y);
+        }
+        for (int col = 0; col <= grid.getCols(); col++) {
+            double x = grid.getStartX() + col * cellSize;
+            lgc.strokeLine(x, grid.getStartY(), x, bottom);
         }
+
+        SnapshotParameters params = new SnapshotParameters();
+        params.setFill(Color.TRANSPARENT);
+        params.setTransform(Transform.scale(scale, scale));
+        return layer.snapshot(params, null);
+    }
+
+    private double outputScale() {
+        if (canvas.getScene() == null || canvas.getScene().getWindow() == null) { return 1; }
+        return canvas.getScene().getWindow().getOutputScaleX();
     }
 
     public void drawObject(GameObject obj) {
@@ -283,29 +377,14 @@ public class CtrlPlay implements Initializable {
     }
 
     public Color getColor(String colorName) {
-        switch (colorName.toLowerCase()) {
-            case "red":
-                return Color.RED;
-            case "blue":
-                return Color.BLUE;
-            case "green":
-                return Color.GREEN;
-            case "yellow":
-                return Color.YELLOW;
-            case "orange":
-                return Color.ORANGE;
-            case "purple":
-                return Color.PURPLE;
-            case "pink":
-                return Color.PINK;
-            case "brown":
-                return Color.BROWN;
-            case "gray":
-                return Color.GRAY;
-            case "black":
-                return Color.BLACK;
-            default:
-                return Color.LIGHTGRAY; // Default color
-        }
+        Color color = colorName == null ? null : COLORS.get(colorName);
+        if (color == null && colorName != null) { color = COLORS.get(colorName.toLowerCase()); }
+        return color != null ? color : UNKNOWN_COLOR; // Default color
+    }
+
+    private Color getOverColor(String colorName) {
+        Color color = colorName == null ? null : OVER_COLORS.get(colorName);
+        if (color == null && colorName != null) { color = OVER_COLORS.get(colorName.toLowerCase()); }
+        return color != null ? color : UNKNOWN_OVER_COLOR;
     }
 }
@@ -1,11 +1,15 @@
 package com.client;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import com.shared.BinaryCodec;
 import com.shared.ClientData;
 import com.shared.GameObject;
 
@@ -15,6 +19,7 @@ import javafx.animation.PauseTransition;
 import javafx.scene.paint.Color;
 import javafx.scene.Scene;
 import javafx.scene.image.Image;
+import javafx.scene.input.KeyEvent;
 import javafx.stage.Stage;
 import javafx.util.Duration;
 
@@ -25,6 +30,24 @@ public class Main extends Application {
     public static String clientName = "";
     public static List<ClientData> clients;
     public static List<GameObject> objects;
+    // Decoded on the WebSocket thread (see wsMessage)
+    public static ClientWorld world = new ClientWorld();
+    // Latest decoded world for the JavaFX thread, with at most one pulse pending to show it.
+    // A newer world replaces the previous one instead of queueing behind it
+    private static final AtomicReference<ClientWorld.Snapshot> latestWorld = new AtomicReference<>();
+    private static final AtomicBoolean worldPulsePending = new AtomicBoolean(false);
+    // Recent snapshots, so remote motion can be drawn interpolated (see CtrlPlay.draw)
+    public static SnapshotBuffer snapshots = new SnapshotBuffer();
+    // Local inputs not yet acknowledged by the server, drawn ahead of it
+    public static Prediction prediction = new Prediction();
+
+    // Input is sent at most SEND_FPS times per second (the server tick rate); only the latest value counts
+    private static final int SEND_FPS = 30;
+    private static final long SEND_INTERVAL_NANOS = 1_000_000_000L / SEND_FPS;
+    private static ClientData pendingMouse = null;
+    private static GameObject pendingObject = null;
+    private static long pendingObjectSeq = 0;
+    private static long lastInputSendNanos = 0;
 
     public static CtrlConfig ctrlConfig;
     public static CtrlWait ctrlWait;
@@ -52,6 +75,7 @@ public class Main extends Application {
         ctrlPlay = (CtrlPlay) UtilsViews.getController("ViewPlay");
 
         Scene scene = new Scene(UtilsViews.parentContainer);
+        scene.addEventFilter(KeyEvent.KEY_PRESSED, ctrlPlay::onKeyPressed);
         
         stage.setScene(scene);
         stage.onCloseRequestProperty(); // Call close method when closing window
@@ -100,67 +124,204 @@ public class Main extends Application {
             String protocol = ctrlConfig.txtProtocol.getText();
             String host = ctrlConfig.txtHost.getText();
             String port = ctrlConfig.txtPort.getText();
-            wsClient = UtilsWS.getSharedInstance(protocol + "://" + host + ":" + port);
+            wsClient = UtilsWS.getSharedInstance(protocol + "://" + host + ":" + port, List.of(BinaryCodec.PROTOCOL));
     
-            wsClient.onMessage((response) -> { Platform.runLater(() -> { wsMessage(response); }); });
+            // Messages are decoded on the WebSocket thread, only the results go to the JavaFX thread
+            wsClient.onMessage(Main::wsMessage);
+            wsClient.onBinaryMessage(Main::wsBinaryMessage);
             wsClient.onError((response) -> { Platform.runLater(() -> { wsError(response); }); });
         });
     }
    
+    // WebSocket thread
     private static void wsMessage(String response) {
         
         // System.out.println(response);
         
         JSONObject msgObj = new JSONObject(response);
         switch (msgObj.getString("type")) {
-            case "serverData":
-                clientName = msgObj.getString("clientName");
-
-                JSONArray arrClients = msgObj.getJSONArray("clientsList");
-                List<ClientData> newClients = new ArrayList<>();
-                for (int i = 0; i < arrClients.length(); i++) {
-                    JSONObject obj = arrClients.getJSONObject(i);
-                    newClients.add(ClientData.fromJSON(obj));
-                }
-                clients = newClients;
-
-                JSONArray arrObjects = msgObj.getJSONArray("objectsList");
-                List<GameObject> newObjects = new ArrayList<>();
-                for (int i = 0; i < arrObjects.length(); i++) {
-                    JSONObject obj = arrObjects.getJSONObject(i);
-                    newObjects.add(GameObject.fromJSON(obj));
-                }
-                objects = newObjects;
-
-                if (clients.size() == 1) {
-
-                    ctrlWait.txtPlayer0.setText(clients.get(0).name);
-
-                } else if (clients.size() > 1) {
-
-                    ctrlWait.txtPlayer0.setText(clients.get(0).name);
-                    ctrlWait.txtPlayer1.setText(clients.get(1).name);
-                    ctrlPlay.title.setText(clients.get(0).name + " vs " + clients.get(1).name);
-                }
-                
-                if (UtilsViews.getActiveView().equals("ViewConfig")) {
-                    UtilsViews.setViewAnimating("ViewWait");
-                }
+            case "clientName":
+                String name = msgObj.getString("value");
+                Platform.runLater(() -> { onClientName(name); });
+                break;
 
+            case "serverData":
+                // Apply keyframe or delta, then acknowledge the tick
+                if (world.apply(msgObj)) { onWorldDecoded(); }
                 break;
             
             case "countdown":
                 int value = msgObj.getInt("value");
-                String txt = String.valueOf(value);
-                if (value == 0) {
-                    UtilsViews.setViewAnimating("ViewPlay");
-                    txt = "GO";
-                }
-                ctrlWait.txtTitle.setText(txt);
+                Platform.runLater(() -> { onCountdown(value); });
                 break;
         }
     }
 
+    // WebSocket thread
+    private static void wsBinaryMessage(ByteBuffer response) {
+        BinaryCodec.Reader in = new BinaryCodec.Reader(response);
+        switch (in.type()) {
+            case BinaryCodec.T_CLIENT_NAME:
+                String name = in.getString();
+                Platform.runLater(() -> { onClientName(name); });
+                break;
+
+            case BinaryCodec.T_SERVER_DATA:
+                if (world.apply(in)) { onWorldDecoded(); }
+                break;
+
+            case BinaryCodec.T_COUNTDOWN:
+                int value = (int) in.getVarLong();
+                Platform.runLater(() -> { onCountdown(value); });
+                break;
+        }
+    }
+
+    private static void onClientName(String name) {
+        clientName = name;
+        prediction.clear();
+        sendViewport();
+    }
+
+    // WebSocket thread: acknowledges the tick and hands the new world over to the JavaFX thread.
+    // The snapshot buffer gets every world (interpolation needs their arrival times), the UI only the latest
+    private static void onWorldDecoded() {
+        ClientWorld.Snapshot snapshot = world.snapshot();
+        sendAck(snapshot.tick());
+        snapshots.push(System.nanoTime(), snapshot.clients(), snapshot.objects());
+        latestWorld.set(snapshot);
+        if (worldPulsePending.compareAndSet(false, true)) {
+            Platform.runLater(Main::onWorldUpdated);
+        }
+    }
+
+    private static void onWorldUpdated() {
+        // Cleared before reading, so a world published from now on schedules a new pulse
+        worldPulsePending.set(false);
+        ClientWorld.Snapshot snapshot = latestWorld.get();
+        clients = snapshot.clients();
+        objects = snapshot.objects();
+        long now = System.nanoTime();
+        for (ClientData cd : clients) {
+            if (cd.name.equals(clientName)) { prediction.acknowledge(now, cd.seq); }
+        }
+
+        if (clients.size() == 1) {
+
+            ctrlWait.txtPlayer0.setText(clients.get(0).name);
+
+        } else if (clients.size() > 1) {
+
+            ctrlWait.txtPlayer0.setText(clients.get(0).name);
+            ctrlWait.txtPlayer1.setText(clients.get(1).name);
+            ctrlPlay.title.setText(clients.get(0).name + " vs " + clients.get(1).name);
+        }
+        
+        if (UtilsViews.getActiveView().equals("ViewConfig")) {
+            UtilsViews.setViewAnimating("ViewWait");
+        }
+    }
+
+    private static void onCountdown(int value) {
+        String txt = String.valueOf(value);
+        if (value == 0) {
+            UtilsViews.setViewAnimating("ViewPlay");
+            txt = "GO";
+        }
+        ctrlWait.txtTitle.setText(txt);
+    }
+
+    // Messages to the server, in the format negotiated for this connection
+
+    private static boolean isBinary() {
+        return wsClient != null && BinaryCodec.PROTOCOL.equals(wsClient.getProtocol());
+    }
+
+    // Inputs are applied locally right away (see Prediction) and sent with their sequence number
+    public static void queueMouseMoving(ClientData cd) {
+        prediction.mouse(System.nanoTime(), cd);
+        pendingMouse = cd;
+        flushInput(false);
+    }
+
+    public static void queueObjectMoving(GameObject go) {
+        pendingObjectSeq = prediction.object(System.nanoTime(), go);
+        pendingObject = go;
+        flushInput(false);
+    }
+
+    // Sends the pending input if the interval has passed (or always, if forced). Called every frame too,
+    // so the last move of a burst is not left behind
+    public static void flushInput(boolean force) {
+        if (pendingMouse == null && pendingObject == null) { return; }
+        long now = System.nanoTime();
+        if (!force && now - lastInputSendNanos < SEND_INTERVAL_NANOS) { return; }
+
+        if (pendingObject != null) { sendObjectMoving(pendingObject, pendingObjectSeq); }
+        if (pendingMouse != null) { sendMouseMoving(pendingMouse); }
+        pendingObject = null;
+        pendingMouse = null;
+        lastInputSendNanos = now;
+    }
+
+    private static void sendMouseMoving(ClientData cd) {
+        if (wsClient == null) { return; }
+        if (isBinary()) {
+            wsClient.safeSend(BinaryCodec.encodeMouseMoving(cd));
+        } else {
+            JSONObject msg = new JSONObject();
+            msg.put("type", "clientMouseMoving");
+            msg.put("seq", cd.seq);
+            msg.put("value", cd.toJSON());
+            wsClient.safeSend(msg.toString());
+        }
+    }
+
+    private static void sendObjectMoving(GameObject go, long seq) {
+        if (wsClient == null) { return; }
+        if (isBinary()) {
+            wsClient.safeSend(BinaryCodec.encodeObjectMoving(go, seq));
+        } else {
+            JSONObject msg = new JSONObject();
+            msg.put("type", "clientObjectMoving");
+            msg.put("seq", seq);
+            msg.put("value", go.toJSON());
+            wsClient.safeSend(msg.toString());
+        }
+    }
+
+    public static void sendAck(long tick) {
+        if (wsClient == null) { return; }
+        if (isBinary()) {
+            wsClient.safeSend(BinaryCodec.encodeAck(tick));
+        } else {
+            JSONObject ack = new JSONObject();
+            ack.put("type", "clientAck");
+            ack.put("value", tick);
+            wsClient.safeSend(ack.toString());
+        }
+    }
+
+    // The server only sends cursors and objects near this area
+    public static void sendViewport() {
+        if (wsClient == null) { return; }
+        int width = (int) UtilsViews.parentContainer.getWidth();
+        int height = (int) UtilsViews.parentContainer.getHeight();
+        if (isBinary()) {
+            wsClient.safeSend(BinaryCodec.encodeViewport(0, 0, width, height));
+        } else {
+            JSONObject value = new JSONObject();
+            value.put("x", 0);
+            value.put("y", 0);
+            value.put("width", width);
+            value.put("height", height);
+            JSONObject msg = new JSONObject();
+            msg.put("type", "clientViewport");
+            msg.put("value", value);
+            wsClient.safeSend(msg.toString());
+        }
+    }
+
     private static void wsError(String response) {
         String connectionRefused = "Connection refused";
         if (response.indexOf(connectionRefused) != -1) {
@@ -1,61 +1,167 @@
 package com.client;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.LongUnaryOperator;
 import javafx.animation.AnimationTimer;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 
+import com.shared.LatencyHistogram;
+
 public class PlayTimer extends AnimationTimer {
 
+    // JavaFX pulses run at 60 Hz by default; used as the expected frame period without an FPS limit
+    private static final long PULSE_NANOS = 1_000_000_000L / 60;
+
+    // The overlay percentiles cover the last OVERLAY_WINDOW_NANOS of frames
+    private static final long OVERLAY_WINDOW_NANOS = 1_000_000_000L;
+
     public double fps;
-    
-    private long lastNanoTime;
+
+    private long lastFrameNanos = 0;
     private int frameCount;
     private double elapsedTime;
     private double updateInterval = 0.25; // Update interval in seconds
-    private Double frameTime;
+
+    // Pacing: frames are due every frameNanos (0 = every pulse). The deadline advances by whole
+    // periods instead of restarting from the last frame, so a pulse that comes a little early or
+    // late does not skip a frame or let the rate drift. AnimationTimer is driven by the pulses,
+    // so waiting for the next frame costs nothing (no busy loop)
+    private final long frameNanos;
+    private long nextFrameNanos = 0;
 
     private Consumer<Double> runFunction;
     private Runnable drawFunction;
 
+    // Per-frame timing: interval between frames, and time spent in run() and draw()
+    private final LatencyHistogram frameTimes = new LatencyHistogram();
+    private final LatencyHistogram runTimes = new LatencyHistogram();
+    private final LatencyHistogram drawTimes = new LatencyHistogram();
+    // Frame periods that passed without a frame
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    // Age of the newest network snapshot at a given time (negative if there is none)
+    private LongUnaryOperator snapshotAge = now -> -1;
+
+    // Overlay values, recomputed once per window from the difference of the histogram counts
+    private long[] windowFrames, windowRuns, windowDraws;
+    private long windowStartNanos = 0;
+    private long frameP50, frameP95, frameP99, runP99, drawP99;
+
     public PlayTimer(Consumer<Double> runFunction, Runnable drawFunction, double targetFPS) {
         this.runFunction = runFunction;
         this.drawFunction = drawFunction;
-        if (targetFPS > 0) {
-            this.frameTime = 1.0 / targetFPS;
-        } else {
-            this.frameTime = null; // Without FPS limit
-        }
-        lastNanoTime = System.nanoTime();
+        this.frameNanos = targetFPS > 0 ? (long) (1_000_000_000L / targetFPS) : 0; // 0 = without FPS limit
+        this.windowFrames = frameTimes.snapshot();
+        this.windowRuns = runTimes.snapshot();
+        this.windowDraws = drawTimes.snapshot();
+    }
+
+    public void setSnapshotAge(LongUnaryOperator snapshotAge) {
+        this.snapshotAge = snapshotAge;
+    }
+
+    @Override
+    public void start() {
+        // Time stopped (other views) is neither a frame interval nor dropped frames
+        lastFrameNanos = 0;
+        nextFrameNanos = 0;
+        super.start();
     }
 
     @Override
     public void handle(long now) {
-        long nanoDelta = now - lastNanoTime;
-        double delta = nanoDelta / 1_000_000_000.0;
+        if (frameNanos > 0) {
+            if (nextFrameNanos == 0) { nextFrameNanos = now; }
+            // A pulse up to half a period early still counts as on time
+            if (now < nextFrameNanos - Math.min(frameNanos, PULSE_NANOS) / 2) { return; }
+            nextFrameNanos += frameNanos;
+            if (nextFrameNanos <= now) { nextFrameNanos = now + frameNanos; } // far behind: start over
+        }
 
-        if (frameTime == null || delta >= frameTime) {
-            elapsedTime += delta;
-            frameCount++;
+        if (lastFrameNanos != 0) {
+            long interval = now - lastFrameNanos;
+            long period = frameNanos > 0 ? frameNanos : PULSE_NANOS;
+            long missed = (interval + period / 2) / period - 1;
+            if (missed > 0) { droppedFrames.addAndGet(missed); }
+            frameTimes.record(interval / 1000);
 
+            elapsedTime += interval / 1_000_000_000.0;
+            frameCount++;
             if (elapsedTime >= updateInterval) {
                 fps = frameCount / elapsedTime;
                 elapsedTime = 0;
                 frameCount = 0;
             }
+        }
+        lastFrameNanos = now;
 
-            runFunction.accept(fps);
-            drawFunction.run();
+        long t0 = System.nanoTime();
+        runFunction.accept(fps);
+        long t1 = System.nanoTime();
+        drawFunction.run();
+        long t2 = System.nanoTime();
+        runTimes.record((t1 - t0) / 1000);
+        drawTimes.record((t2 - t1) / 1000);
 
-            lastNanoTime = now;
-        }
+        if (now - windowStartNanos >= OVERLAY_WINDOW_NANOS) { updateWindow(now); }
+    }
+
+    private void updateWindow(long now) {
+        long[] frames = frameTimes.snapshot();
+        long[] runs = runTimes.snapshot();
+        long[] draws = drawTimes.snapshot();
+        frameP50 = LatencyHistogram.percentile(frames, windowFrames, 0.50);
+        frameP95 = LatencyHistogram.percentile(frames, windowFrames, 0.95);
+        frameP99 = LatencyHistogram.percentile(frames, windowFrames, 0.99);
+        runP99 = LatencyHistogram.percentile(runs, windowRuns, 0.99);
+        drawP99 = LatencyHistogram.percentile(draws, windowDraws, 0.99);
+        windowFrames = frames;
+        windowRuns = runs;
+        windowDraws = draws;
+        windowStartNanos = now;
     }
 
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    // FPS plus the frame-time overlay: a high frame time with a fresh snapshot is a client stall,
+    // a growing snapshot age with normal frame times is the server or the network
     public void drawFPS(GraphicsContext gc) {
+        long age = snapshotAge.applyAsLong(System.nanoTime());
         gc.setFill(Color.RED);
         gc.setFont(Font.font("Arial", FontWeight.BOLD, 14));
         gc.fillText(String.format("FPS: %.2f", fps), 8, 20);
+        gc.setFont(Font.font("Arial", 12));
+        gc.fillText(String.format(Locale.ROOT, "frame p50 %.1f  p95 %.1f  p99 %.1f ms",
+                frameP50 / 1000.0, frameP95 / 1000.0, frameP99 / 1000.0), 8, 38);
+        gc.fillText(String.format(Locale.ROOT, "run p99 %.2f  draw p99 %.2f ms",
+                runP99 / 1000.0, drawP99 / 1000.0), 8, 54);
+        gc.fillText(String.format(Locale.ROOT, "dropped %d  snapshot age %s",
+                droppedFrames.get(), age < 0 ? "-" : String.format(Locale.ROOT, "%.0f ms", age / 1e6)), 8, 70);
+    }
+
+    // Writes the histograms since start: one row per bucket with samples, counts per phase
+    public void exportCSV(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file)) {
+            out.write("upper_ms,frame,run,draw\n");
+            for (int i = 0; i < frameTimes.buckets(); i++) {
+                long frame = frameTimes.count(i);
+                long run = runTimes.count(i);
+                long draw = drawTimes.count(i);
+                if (frame == 0 && run == 0 && draw == 0) { continue; }
+                out.write(String.format(Locale.ROOT, "%.3f,%d,%d,%d%n",
+                        LatencyHistogram.upperBound(i) / 1000.0, frame, run, draw));
+            }
+        }
     }
 }
@@ -0,0 +1,129 @@
+package com.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.shared.ClientData;
+import com.shared.GameObject;
+
+// Client-side prediction: every local input (own cursor, dragged object) gets a sequence number
+// and is drawn right away, without waiting for the server round trip.
+// The server echoes the last sequence it applied in our own entry of 'serverData'. On each
+// snapshot the acknowledged inputs are dropped and the rest are applied again, in order, over the
+// new server state (reconciliation), so a move the server changed or never got is corrected
+public class Prediction {
+
+    private static final int MAX_PENDING = 256;
+
+    // Inputs the server never acknowledges (lost, or an old server) stop overriding its state
+    private static final long INPUT_TIMEOUT_NANOS = 1_000_000_000L;
+
+    private record Input(long seq, long timeNanos, ClientData mouse, GameObject object) {}
+
+    private final ArrayDeque<Input> pending = new ArrayDeque<>();
+
+    // Objects whose last input was just acknowledged, with the time of the ack. They are still
+    // drawn from the newest snapshot until the interpolated view catches up, so they don't jump back
+    private final Map<String, Long> settling = new HashMap<>();
+
+    private long nextSeq = 1;
+    private long ackedSeq = 0;
+    // Changes whenever the pending inputs do, so the renderer can tell whether there is anything new
+    private long version = 0;
+
+    // Records a cursor move and returns its sequence number (also stored in cd.seq)
+    public long mouse(long nowNanos, ClientData cd) {
+        cd.seq = add(nowNanos, cd, null);
+        return cd.seq;
+    }
+
+    // Records an object move and returns its sequence number
+    public long object(long nowNanos, GameObject go) {
+        return add(nowNanos, null, go);
+    }
+
+    private long add(long nowNanos, ClientData mouse, GameObject object) {
+        long seq = nextSeq++;
+        pending.addLast(new Input(seq, nowNanos, mouse, object));
+        if (pending.size() > MAX_PENDING) { pending.removeFirst(); }
+        version++;
+        return seq;
+    }
+
+    // The server has applied every input up to 'seq'
+    public void acknowledge(long nowNanos, long seq) {
+        if (seq > ackedSeq) { ackedSeq = seq; }
+        Iterator<Input> it = pending.iterator();
+        while (it.hasNext()) {
+            Input in = it.next();
+            if (in.seq > ackedSeq && nowNanos - in.timeNanos < INPUT_TIMEOUT_NANOS) { break; }
+            if (in.object != null) { settling.put(in.object.id, nowNanos); }
+            it.remove();
+            version++;
+        }
+    }
+
+    // New connection: the server numbers from scratch and nothing pending applies any more
+    public void clear() {
+        pending.clear();
+        settling.clear();
+        ackedSeq = 0;
+        version++;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    // True while the drawn frame can change without new inputs or snapshots: inputs waiting for
+    // their ack, or objects still switching from the newest snapshot back to the interpolated view
+    public boolean isActive(long nowNanos, long delayNanos) {
+        if (!pending.isEmpty()) { return true; }
+        for (long t : settling.values()) {
+            if (nowNanos - t <= delayNanos) { return true; }
+        }
+        return false;
+    }
+
+    // Objects to take from the newest snapshot instead of the interpolated past: the ones with
+    // pending inputs and the ones acknowledged less than 'delayNanos' ago
+    public Set<String> localObjects(long nowNanos, long delayNanos) {
+        settling.values().removeIf(t -> nowNanos - t > delayNanos);
+        Set<String> ids = new HashSet<>(settling.keySet());
+        for (Input in : pending) {
+            if (in.object != null) { ids.add(in.object.id); }
+        }
+        return ids;
+    }
+
+    // Re-simulates the pending inputs over the server state of the frame
+    public SnapshotBuffer.Frame apply(SnapshotBuffer.Frame frame) {
+        if (pending.isEmpty()) { return frame; }
+
+        Map<String, ClientData> mice = new HashMap<>();
+        Map<String, GameObject> objects = new HashMap<>();
+        for (Input in : pending) {
+            // Every input sets an absolute position, so replaying them in order leaves the last one
+            if (in.mouse != null) { mice.put(in.mouse.name, in.mouse); }
+            if (in.object != null) { objects.put(in.object.id, in.object); }
+        }
+
+        List<ClientData> clients = new ArrayList<>(frame.clients().size());
+        for (ClientData cd : frame.clients()) {
+            ClientData own = mice.get(cd.name);
+            clients.add(own != null ? new ClientData(cd.name, cd.color, own.mouseX, own.mouseY, own.row, own.col) : cd);
+        }
+        List<GameObject> drawn = new ArrayList<>(frame.objects().size());
+        for (GameObject go : frame.objects()) {
+            GameObject moved = objects.get(go.id);
+            drawn.add(moved != null ? new GameObject(go.id, moved.x, moved.y, moved.col, moved.row) : go);
+        }
+        return new SnapshotBuffer.Frame(clients, drawn);
+    }
+}
@@ -0,0 +1,166 @@
+package com.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.shared.ClientData;
+import com.shared.GameObject;
+
+// Keeps the last world snapshots with their arrival time and renders cursors and objects
+// a little in the past, interpolated between the two snapshots around that moment.
+// Motion stays smooth even when the server sends at 10-15 Hz or packets arrive unevenly.
+// Snapshots are pushed from the WebSocket thread and sampled from the JavaFX thread
+public class SnapshotBuffer {
+
+    private static final int CAPACITY = 32;
+
+    // Render delay: two snapshot intervals, so there is usually a newer snapshot to blend towards
+    private static final double DELAY_INTERVALS = 2.0;
+    private static final long MIN_DELAY_NANOS = 50_000_000L;
+    private static final long MAX_DELAY_NANOS = 300_000_000L;
+
+    // When no newer snapshot has arrived, keep moving along the last velocity for at most this long
+    private static final long MAX_EXTRAPOLATION_NANOS = 100_000_000L;
+
+    private record Snapshot(long timeNanos, Map<String, ClientData> clients, Map<String, GameObject> objects) {}
+
+    // What to draw in one frame
+    public record Frame(List<ClientData> clients, List<GameObject> objects) {}
+
+    private static final Frame EMPTY = new Frame(List.of(), List.of());
+
+    private final ArrayDeque<Snapshot> snapshots = new ArrayDeque<>();
+    private double meanIntervalNanos = 1_000_000_000.0 / 30;
+    // Changes on every push or clear, so the renderer can tell whether there is anything new
+    private long version = 0;
+
+    public synchronized void push(long nowNanos, List<ClientData> clients, List<GameObject> objects) {
+        Map<String, ClientData> cs = new LinkedHashMap<>();
+        for (ClientData cd : clients) { cs.put(cd.name, cd); }
+        Map<String, GameObject> os = new LinkedHashMap<>();
+        for (GameObject go : objects) { os.put(go.id, go); }
+
+        Snapshot last = snapshots.peekLast();
+        if (last != null) {
+            long interval = nowNanos - last.timeNanos;
+            if (interval > 0 && interval < MAX_DELAY_NANOS * 4) {
+                meanIntervalNanos += (interval - meanIntervalNanos) / 8;
+            }
+        }
+        snapshots.addLast(new Snapshot(nowNanos, cs, os));
+        if (snapshots.size() > CAPACITY) { snapshots.removeFirst(); }
+        version++;
+    }
+
+    public synchronized void clear() {
+        snapshots.clear();
+        version++;
+    }
+
+    public synchronized long version() {
+        return version;
+    }
+
+    // Until this time sample() keeps changing without new snapshots: interpolating towards the
+    // newest one and then extrapolating past it. Afterwards the frame stays still
+    public synchronized long movingUntilNanos() {
+        Snapshot newest = snapshots.peekLast();
+        if (newest == null) { return Long.MIN_VALUE; }
+        return newest.timeNanos + delayNanos() + MAX_EXTRAPOLATION_NANOS;
+    }
+
+    // Time since the newest snapshot arrived, or -1 if there is none
+    public synchronized long newestAgeNanos(long nowNanos) {
+        Snapshot newest = snapshots.peekLast();
+        return newest == null ? -1 : nowNanos - newest.timeNanos;
+    }
+
+    public synchronized long delayNanos() {
+        long delay = (long) (meanIntervalNanos * DELAY_INTERVALS);
+        return Math.max(MIN_DELAY_NANOS, Math.min(MAX_DELAY_NANOS, delay));
+    }
+
+    // Cursors and objects at (now - delay). The local player's own cursor and the objects in
+    // 'localObjects' (the ones it is moving, see Prediction) are never delayed
+    public synchronized Frame sample(long nowNanos, String localName, Set<String> localObjects) {
+        if (snapshots.isEmpty()) { return EMPTY; }
+        long t = nowNanos - delayNanos();
+
+        Snapshot prev = null;
+        Snapshot from = null;
+        Snapshot to = null;
+        Iterator<Snapshot> it = snapshots.iterator();
+        while (it.hasNext()) {
+            Snapshot s = it.next();
+            if (s.timeNanos <= t) {
+                prev = from;
+                from = s;
+            } else {
+                to = s;
+                break;
+            }
+        }
+
+        Snapshot newest = snapshots.peekLast();
+        if (from == null) {
+            // Still before the oldest snapshot (just connected): show it as is
+            return frame(to, to, 0, newest, localName, localObjects);
+        }
+        if (to != null) {
+            double alpha = (double) (t - from.timeNanos) / (to.timeNanos - from.timeNanos);
+            return frame(from, to, alpha, newest, localName, localObjects);
+        }
+        if (prev == null) {
+            return frame(from, from, 0, newest, localName, localObjects);
+        }
+        // Late: extrapolate from the last two snapshots, for a limited time
+        long ahead = Math.min(t - from.timeNanos, MAX_EXTRAPOLATION_NANOS);
+        double alpha = 1 + (double) ahead / Math.max(1, from.timeNanos - prev.timeNanos);
+        return frame(prev, from, alpha, newest, localName, localObjects);
+    }
+
+    // Entities of 'b' (the later snapshot), moved 'alpha' of the way from their position in 'a'
+    private static Frame frame(Snapshot a, Snapshot b, double alpha, Snapshot newest,
+                               String localName, Set<String> localObjects) {
+        List<ClientData> clients = new ArrayList<>(b.clients.size());
+        for (ClientData cb : b.clients.values()) {
+            if (cb.name.equals(localName)) {
+                ClientData own = newest.clients.get(localName);
+                clients.add(own != null ? own : cb);
+                continue;
+            }
+            ClientData ca = a.clients.get(cb.name);
+            if (ca == null || ca == cb) {
+                clients.add(cb);
+            } else {
+                clients.add(new ClientData(cb.name, cb.color,
+                        lerp(ca.mouseX, cb.mouseX, alpha), lerp(ca.mouseY, cb.mouseY, alpha), cb.row, cb.col));
+            }
+        }
+
+        List<GameObject> objects = new ArrayList<>(b.objects.size());
+        for (GameObject ob : b.objects.values()) {
+            if (localObjects.contains(ob.id)) {
+                GameObject own = newest.objects.get(ob.id);
+                objects.add(own != null ? own : ob);
+                continue;
+            }
+            GameObject oa = a.objects.get(ob.id);
+            if (oa == null || oa == ob) {
+                objects.add(ob);
+            } else {
+                objects.add(new GameObject(ob.id, lerp(oa.x, ob.x, alpha), lerp(oa.y, ob.y, alpha), ob.col, ob.row));
+            }
+        }
+        return new Frame(clients, objects);
+    }
+
+    private static int lerp(int a, int b, double alpha) {
+        return (int) Math.round(a + (b - a) * alpha);
+    }
+}
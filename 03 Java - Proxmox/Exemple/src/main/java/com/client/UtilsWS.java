@@ -2,6 +2,9 @@ package com.client;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -11,6 +14,10 @@ import java.util.function.Consumer;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+
+import com.shared.DeflateExtension;
 
 public class UtilsWS {
 
@@ -18,20 +25,34 @@ public class UtilsWS {
     private WebSocketClient client;
     private Consumer<String> onOpenCallBack = null;
     private Consumer<String> onMessageCallBack = null;
+    private Consumer<ByteBuffer> onBinaryMessageCallBack = null;
     private Consumer<String> onCloseCallBack = null;
     private Consumer<String> onErrorCallBack = null;
     private String location = "";
+    private List<String> protocols = List.of();
     private static AtomicBoolean exitRequested = new AtomicBoolean(false);
     private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
-    private UtilsWS(String location) {
+    private UtilsWS(String location, List<String> protocols) {
         this.location = location;
+        this.protocols = protocols;
         createNewWebSocketClient();
     }
 
+    // Offers the given subprotocols (in order of preference), plain connection as fallback,
+    // and permessage-deflate for large messages (the server decides whether to accept it)
+    private Draft_6455 createDraft() {
+        List<IProtocol> offered = new ArrayList<>();
+        for (String p : protocols) {
+            offered.add(new Protocol(p));
+        }
+        offered.add(new Protocol(""));
+        return new Draft_6455(List.of(new DeflateExtension()), offered);
+    }
+
     private void createNewWebSocketClient() {
         try {
-            this.client = new WebSocketClient(new URI(location), new Draft_6455()) {
+            this.client = new WebSocketClient(new URI(location), createDraft()) {
                 @Override
                 public void onOpen(ServerHandshake handshake) {
                     String message = "WS connected to: " + getURI();
@@ -48,6 +69,13 @@ public class UtilsWS {
                     }
                 }
 
+                @Override
+                public void onMessage(ByteBuffer message) {
+                    if (onBinaryMessageCallBack != null) {
+                        onBinaryMessageCallBack.accept(message);
+                    }
+                }
+
                 @Override
                 public void onClose(int code, String reason, boolean remote) {
                     String message = "WS closed connection from: " + getURI() + " with reason: " + reason;
@@ -99,8 +127,12 @@ public class UtilsWS {
     }
 
     public static UtilsWS getSharedInstance(String location) {
+        return getSharedInstance(location, List.of());
+    }
+
+    public static UtilsWS getSharedInstance(String location, List<String> protocols) {
         if (sharedInstance == null) {
-            sharedInstance = new UtilsWS(location);
+            sharedInstance = new UtilsWS(location, protocols);
         }
         return sharedInstance;
     }
@@ -109,10 +141,15 @@ public class UtilsWS {
         this.onOpenCallBack = callBack;
     }
 
+    // Message callbacks run on the WebSocket thread: decode there, hand only the result to JavaFX
     public void onMessage(Consumer<String> callBack) {
         this.onMessageCallBack = callBack;
     }
 
+    public void onBinaryMessage(Consumer<ByteBuffer> callBack) {
+        this.onBinaryMessageCallBack = callBack;
+    }
+
     public void onClose(Consumer<String> callBack) {
         this.onCloseCallBack = callBack;
     }
@@ -134,6 +171,27 @@ public class UtilsWS {
         }
     }
 
+    public void safeSend(ByteBuffer data) {
+        try {
+            if (client != null && client.isOpen()) {
+                client.send(data);
+            } else {
+                System.out.println("WS Error: Client is not connected. Attempting to reconnect...");
+                scheduleReconnect();
+            }
+        } catch (Exception e) {
+            System.out.println("WS Error sending message: " + e.getMessage());
+        }
+    }
+
+    // Subprotocol accepted by the server ("" when none was negotiated)
+    public String getProtocol() {
+        if (client != null && client.getDraft() instanceof Draft_6455 draft && draft.getProtocol() != null) {
+            return draft.getProtocol().getProvidedProtocol();
+        }
+        return "";
+    }
+
     public void forceExit() {
         System.out.println("WS Closing ...");
         exitRequested.set(true);
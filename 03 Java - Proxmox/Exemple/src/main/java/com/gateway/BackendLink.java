@@ -0,0 +1,124 @@
+package com.gateway;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import org.json.JSONObject;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connexió de control de la passarel·la amb un procés servidor ("/_control").
+ *
+ * Serveix alhora de comprovació de salut (el servidor és viu mentre la connexió és
+ * oberta) i de canal per demanar i restaurar l'estat de les sales. Cada petició
+ * porta un "requestId" i la resposta completa el CompletableFuture corresponent.
+ */
+final class BackendLink {
+
+    /** Temps màxim d'espera d'una resposta del servidor. */
+    private static final long REQUEST_TIMEOUT_MS = 2000;
+
+    /** Node a l'anell ("host:port"). */
+    final String node;
+
+    private final Main gateway;
+    private final URI controlUri;
+
+    private final Map<Long, CompletableFuture<JSONObject>> requests = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong();
+
+    /** Connexió actual (una de nova per a cada intent). */
+    private volatile WebSocketClient ws;
+
+    /** El servidor s'ha anunciat com a viu a la passarel·la. */
+    private volatile boolean up = false;
+
+    BackendLink(String node, Main gateway) {
+        this.node = node;
+        this.gateway = gateway;
+        this.controlUri = URI.create("ws://" + node + "/_control");
+    }
+
+    boolean isOpen() {
+        WebSocketClient c = ws;
+        return c != null && c.isOpen();
+    }
+
+    /** Intenta connectar si no hi ha cap connexió oberta ni en curs. */
+    void connectIfClosed() {
+        WebSocketClient c = ws;
+        if (c != null && !c.isClosed() && !c.isClosing()) return;
+
+        ws = new WebSocketClient(controlUri) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+                up = true;
+                gateway.onBackendUp(node);
+            }
+
+            @Override
+            public void onMessage(String message) {
+                JSONObject obj;
+                try {
+                    obj = new JSONObject(message);
+                } catch (Exception ex) {
+                    return;
+                }
+                CompletableFuture<JSONObject> f = requests.remove(obj.optLong(Main.K_REQUEST_ID, -1));
+                if (f != null) f.complete(obj);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+                failPending();
+                if (up) {
+                    up = false;
+                    gateway.onBackendDown(node);
+                }
+            }
+
+            @Override
+            public void onError(Exception ex) {
+                // Connexió refusada o tallada: es reintenta al proper control de salut
+            }
+        };
+        ws.connect();
+    }
+
+    /**
+     * Envia una petició de control i n'espera la resposta.
+     *
+     * @return resposta del servidor; falla si no arriba a temps o la connexió cau
+     */
+    CompletableFuture<JSONObject> request(JSONObject message) {
+        long id = nextRequestId.incrementAndGet();
+        CompletableFuture<JSONObject> f = new CompletableFuture<>();
+        requests.put(id, f);
+        try {
+            ws.send(message.put(Main.K_REQUEST_ID, id).toString());
+        } catch (Exception e) {
+            requests.remove(id);
+            f.completeExceptionally(e);
+        }
+        return f.orTimeout(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((r, e) -> requests.remove(id));
+    }
+
+    void close() {
+        WebSocketClient c = ws;
+        if (c != null) c.close();
+    }
+
+    private void failPending() {
+        for (CompletableFuture<JSONObject> f : requests.values()) {
+            f.completeExceptionally(new IllegalStateException("Servidor desconnectat: " + node));
+        }
+        requests.clear();
+    }
+}
@@ -0,0 +1,138 @@
+package com.gateway;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.protocols.Protocol;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Connexió d'un client de joc cap al servidor que té la seva sala.
+ *
+ * El client es queda connectat a la passarel·la; quan la sala canvia de servidor,
+ * connect() obre una connexió nova i tanca l'anterior. Els missatges de la connexió
+ * antiga que encara arribin es descarten, i els del client que arriben mentre no hi
+ * ha cap connexió oberta s'encuen (fins a MAX_PENDING) i s'envien en obrir-se.
+ */
+final class ClientProxy {
+
+    /** Màxim de missatges del client encuats mentre no hi ha servidor. */
+    private static final int MAX_PENDING = 256;
+
+    /** Connexió del client a la passarel·la. */
+    final WebSocket client;
+
+    /** Clau de la sala del client. */
+    final String room;
+
+    /** Subprotocol negociat amb el client ("" = JSON). */
+    private final String protocol;
+
+    /** Connexió actual cap al servidor (protegit per 'this'). */
+    private WebSocketClient backend;
+
+    /** Missatges del client pendents d'enviar (String o ByteBuffer). */
+    private final Deque<Object> pending = new ArrayDeque<>();
+
+    private boolean closed = false;
+
+    ClientProxy(WebSocket client, String room, String protocol) {
+        this.client = client;
+        this.room = room;
+        this.protocol = protocol;
+    }
+
+    /** Connecta (o reconnecta) el client al servidor indicat. */
+    synchronized void connect(URI uri) {
+        if (closed) return;
+        WebSocketClient previous = backend;
+        backend = createBackend(uri);
+        if (previous != null) previous.close();
+        backend.connect();
+    }
+
+    /** Reenvia un missatge del client cap al servidor. */
+    synchronized void forward(String message) {
+        if (backend != null && backend.isOpen()) backend.send(message);
+        else enqueue(message);
+    }
+
+    /** Reenvia un missatge binari del client cap al servidor. */
+    synchronized void forward(ByteBuffer message) {
+        if (backend != null && backend.isOpen()) {
+            backend.send(message);
+        } else {
+            // El buffer pertany al fil de lectura: se'n guarda una còpia
+            ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+            copy.put(message.duplicate()).flip();
+            enqueue(copy);
+        }
+    }
+
+    /** Tanca la connexió cap al servidor (el client ha marxat). */
+    synchronized void close() {
+        closed = true;
+        pending.clear();
+        if (backend != null) backend.close();
+        backend = null;
+    }
+
+    private void enqueue(Object message) {
+        if (pending.size() >= MAX_PENDING) pending.pollFirst();
+        pending.addLast(message);
+    }
+
+    private synchronized void flush(WebSocketClient from) {
+        if (from != backend) return;
+        while (!pending.isEmpty()) {
+            Object message = pending.pollFirst();
+            if (message instanceof String text) from.send(text);
+            else from.send((ByteBuffer) message);
+        }
+    }
+
+    private synchronized boolean isCurrent(WebSocketClient from) {
+        return from == backend;
+    }
+
+    private WebSocketClient createBackend(URI uri) {
+        // S'ofereix al servidor el mateix subprotocol que ha triat el client
+        Draft_6455 draft = protocol.isEmpty()
+                ? new Draft_6455()
+                : new Draft_6455(Collections.emptyList(), List.of(new Protocol(protocol)));
+
+        return new WebSocketClient(uri, draft) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+                flush(this);
+            }
+
+            @Override
+            public void onMessage(String message) {
+                if (isCurrent(this) && client.isOpen()) client.send(message);
+            }
+
+            @Override
+            public void onMessage(ByteBuffer message) {
+                if (isCurrent(this) && client.isOpen()) client.send(message);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+                // Si el servidor cau, la passarel·la mourà la sala i cridarà connect()
+            }
+
+            @Override
+            public void onError(Exception ex) {
+                // Es veu com un onClose; la connexió de control decideix si el servidor és viu
+            }
+        };
+    }
+}
@@ -0,0 +1,65 @@
+package com.gateway;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Anell de hash consistent per assignar claus de sala a processos servidor.
+ *
+ * Cada node ocupa VIRTUAL_NODES punts de l'anell; una clau pertany al primer punt
+ * igual o posterior al seu hash. Afegir o treure un node només mou les claus del
+ * seu tram, de manera que la majoria de sales es queden on eren.
+ *
+ * No és segur per a ús concurrent: només l'utilitza el fil de la passarel·la.
+ */
+final class HashRing {
+
+    /** Punts de l'anell per node (reparteix millor la càrrega). */
+    private static final int VIRTUAL_NODES = 128;
+
+    private final SortedMap<Long, String> ring = new TreeMap<>();
+
+    /** Afegeix un node a l'anell. */
+    void add(String node) {
+        for (int i = 0; i < VIRTUAL_NODES; i++) ring.put(hash(node + "#" + i), node);
+    }
+
+    /** Treu un node de l'anell. */
+    void remove(String node) {
+        for (int i = 0; i < VIRTUAL_NODES; i++) ring.remove(hash(node + "#" + i), node);
+    }
+
+    boolean contains(String node) {
+        return ring.containsValue(node);
+    }
+
+    boolean isEmpty() {
+        return ring.isEmpty();
+    }
+
+    /**
+     * Node propietari d'una clau.
+     *
+     * @return node, o null si l'anell és buit
+     */
+    String ownerOf(String key) {
+        if (ring.isEmpty()) return null;
+        SortedMap<Long, String> tail = ring.tailMap(hash(key));
+        return tail.isEmpty() ? ring.get(ring.firstKey()) : tail.get(tail.firstKey());
+    }
+
+    /** Primers 8 bytes de l'MD5 de la clau. */
+    private static long hash(String key) {
+        try {
+            byte[] d = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) h = (h << 8) | (d[i] & 0xFF);
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.gateway;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.protocols.Protocol;
+import org.java_websocket.server.WebSocketServer;
+
+import org.json.JSONObject;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.shared.BinaryCodec;
+
+/**
+ * Passarel·la que reparteix les sales entre diversos processos com.server.Main.
+ *
+ * Els clients es connecten a la passarel·la com si fos el servidor. Cada client rep
+ * una clau de sala (la de "/room/<clau>" si la indica, o una de nova cada
+ * ROOM_SIZE clients), i la sala s'assigna a un servidor amb un anell de hash
+ * consistent. La passarel·la obre una connexió cap a "/room/<clau>" d'aquell
+ * servidor i hi reenvia els missatges en les dues direccions (JSON o binari,
+ * amb el mateix subprotocol que ha negociat el client).
+ *
+ * Cada servidor té una connexió de control ("/_control") que fa de comprovació de
+ * salut. Quan un servidor cau o se n'afegeix un, les sales que canvien de
+ * propietari es traspassen: es demana l'estat al propietari antic (o es fa servir
+ * l'últim estat desat, si ha caigut), es restaura al nou i els clients s'hi
+ * reconnecten sense tancar la connexió amb la passarel·la. En arribar-hi reben un
+ * nom nou i un keyframe complet.
+ *
+ * Fils: l'estat de l'encaminament (anell, propietaris, membres) només el toca el
+ * fil "Gateway"; els fils del WebSocket hi envien tasques.
+ *
+ * Ús: com.gateway.Main [port] [servidor...]   (servidor = port o host:port)
+ */
+public class Main extends WebSocketServer {
+
+    /** Port per defecte on escolta la passarel·la. */
+    public static final int DEFAULT_PORT = 3000;
+
+    /** Servidors per defecte (un procés per port a la mateixa màquina). */
+    private static final List<String> DEFAULT_BACKENDS = List.of("localhost:3001", "localhost:3002");
+
+    /** Clients per sala (el mateix que REQUIRED_CLIENTS del servidor). */
+    private static final int ROOM_SIZE = 2;
+
+    /** Cada quant es comprova la salut dels servidors i es desa l'estat de les sales. */
+    private static final long HEALTH_INTERVAL_MS = 1000;
+    private static final long SNAPSHOT_INTERVAL_MS = 1000;
+
+    // Claus i tipus del canal de control (veure com.server.Main)
+    static final String K_TYPE = "type";
+    static final String K_VALUE = "value";
+    static final String K_ROOM = "room";
+    static final String K_REQUEST_ID = "requestId";
+    static final String T_ROOM_SNAPSHOT = "roomSnapshot";
+    static final String T_ROOM_RESTORE = "roomRestore";
+
+    private static final String ROOM_PATH = "/room/";
+    private static final Pattern ROOM_KEY = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final Pattern BACKEND = Pattern.compile("([A-Za-z0-9.-]+:)?\\d{1,5}");
+
+    /** Servidors ("host:port"), en l'ordre dels arguments. */
+    private final List<String> backendNodes;
+
+    /**
+     * Connexió de control per servidor. Es crea a onStart(), abans d'acceptar cap
+     * client, perquè BackendLink rep la passarel·la; després no canvia.
+     */
+    private volatile Map<String, BackendLink> backends = Map.of();
+
+    /** Connexió de cada client cap al seu servidor. */
+    private final Map<WebSocket, ClientProxy> proxies = new ConcurrentHashMap<>();
+
+    /** Fil únic de l'encaminament. */
+    private final ScheduledExecutorService loop = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Gateway");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // ----- Estat de l'encaminament: només el toca el fil "Gateway" -----
+
+    private final HashRing ring = new HashRing();
+
+    /** Clients de cada sala activa. */
+    private final Map<String, Set<ClientProxy>> roomMembers = new HashMap<>();
+
+    /** Servidor on és ara cada sala. */
+    private final Map<String, String> roomOwner = new HashMap<>();
+
+    /** Últim estat conegut de cada sala (per si el seu servidor cau). */
+    private final Map<String, JSONObject> snapshots = new HashMap<>();
+
+    /** Sales amb un traspàs en curs. */
+    private final Set<String> migrating = new HashSet<>();
+
+    // ----- Fi de l'estat de l'encaminament -----
+
+    /** Sala que s'està omplint i places ocupades (protegit per 'matchLock'). */
+    private final Object matchLock = new Object();
+    private String openRoom = null;
+    private int openSeats = 0;
+    private int nextRoomId = 1;
+
+    /**
+     * Crea la passarel·la (sense arrencar-la).
+     *
+     * @param address adreça i port d'escolta de la passarel·la
+     * @param backendNodes servidors ("host:port")
+     */
+    public static Main create(InetSocketAddress address, List<String> backendNodes) {
+        Main gateway = new Main(address, backendNodes);
+        gateway.setReuseAddr(true);
+        return gateway;
+    }
+
+    private Main(InetSocketAddress address, List<String> backendNodes) {
+        super(address, List.of(new Draft_6455(
+            Collections.emptyList(),
+            List.of(new Protocol(BinaryCodec.PROTOCOL), new Protocol("")) // "" = JSON per defecte
+        )));
+        this.backendNodes = List.copyOf(backendNodes);
+    }
+
+    // ----------------- WebSocketServer overrides -----------------
+
+    /** Assigna una sala al client i el connecta al seu servidor. */
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        String protocol = conn.getDraft() instanceof Draft_6455 draft
+                ? draft.getProtocol().getProvidedProtocol()
+                : "";
+
+        String path = handshake.getResourceDescriptor();
+        String key = path != null && path.startsWith(ROOM_PATH) ? path.substring(ROOM_PATH.length()) : "";
+        String room = ROOM_KEY.matcher(key).matches() ? key : matchmake();
+
+        // El proxy existeix abans de tornar, perquè els missatges del client no es perdin
+        ClientProxy proxy = new ClientProxy(conn, room, protocol);
+        proxies.put(conn, proxy);
+        loop.execute(() -> route(proxy));
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        ClientProxy proxy = proxies.remove(conn);
+        if (proxy == null) return;
+        proxy.close();
+        release(proxy.room);
+        loop.execute(() -> {
+            Set<ClientProxy> members = roomMembers.get(proxy.room);
+            if (members == null) return;
+            members.remove(proxy);
+            if (members.isEmpty()) {
+                roomMembers.remove(proxy.room);
+                roomOwner.remove(proxy.room);
+                snapshots.remove(proxy.room);
+            }
+        });
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+        ClientProxy proxy = proxies.get(conn);
+        if (proxy != null) proxy.forward(message);
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        ClientProxy proxy = proxies.get(conn);
+        if (proxy != null) proxy.forward(message);
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        ex.printStackTrace();
+    }
+
+    /** Arrencada: comprovació de salut i desat periòdic de l'estat de les sales. */
+    @Override
+    public void onStart() {
+        Map<String, BackendLink> links = new LinkedHashMap<>();
+        for (String node : backendNodes) links.put(node, new BackendLink(node, this));
+        backends = Collections.unmodifiableMap(links);
+        System.out.println("Gateway started on port: " + getPort() + " -> " + backends.keySet());
+        setConnectionLostTimeout(100);
+        loop.scheduleWithFixedDelay(this::checkHealth, 0, HEALTH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        loop.scheduleWithFixedDelay(this::refreshSnapshots, SNAPSHOT_INTERVAL_MS, SNAPSHOT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // ----------------- Aparellament -----------------
+
+    /** Clau de la sala que s'està omplint; se n'obre una de nova cada ROOM_SIZE clients. */
+    private String matchmake() {
+        synchronized (matchLock) {
+            if (openRoom == null || openSeats >= ROOM_SIZE) {
+                openRoom = "m" + nextRoomId++;
+                openSeats = 0;
+            }
+            openSeats++;
+            return openRoom;
+        }
+    }
+
+    /** Allibera una plaça si el client era a la sala que s'està omplint (i encara no era plena). */
+    private void release(String room) {
+        synchronized (matchLock) {
+            if (room.equals(openRoom) && openSeats > 0 && openSeats < ROOM_SIZE) openSeats--;
+        }
+    }
+
+    // ----------------- Encaminament (fil "Gateway") -----------------
+
+    private void route(ClientProxy proxy) {
+        if (!proxies.containsKey(proxy.client)) return; // ja ha marxat
+
+        String owner = roomOwner.get(proxy.room);
+        if (owner == null) {
+            owner = ring.ownerOf(proxy.room);
+            if (owner == null) {
+                proxy.client.close(1013, "No hi ha cap servidor disponible");
+                return;
+            }
+            roomOwner.put(proxy.room, owner);
+        }
+        roomMembers.computeIfAbsent(proxy.room, r -> new HashSet<>()).add(proxy);
+        proxy.connect(roomUri(owner, proxy.room));
+    }
+
+    /** Cridat per BackendLink quan la connexió de control s'obre. */
+    void onBackendUp(String node) {
+        loop.execute(() -> {
+            if (ring.contains(node)) return;
+            ring.add(node);
+            System.out.println("Servidor disponible: " + node);
+            rebalance();
+        });
+    }
+
+    /** Cridat per BackendLink quan la connexió de control es tanca. */
+    void onBackendDown(String node) {
+        loop.execute(() -> {
+            ring.remove(node);
+            System.out.println("Servidor caigut: " + node);
+            rebalance();
+        });
+    }
+
+    /** Traspassa les sales que, amb l'anell actual, haurien de ser a un altre servidor. */
+    private void rebalance() {
+        for (String room : new ArrayList<>(roomMembers.keySet())) {
+            if (migrating.contains(room)) continue;
+            String target = ring.ownerOf(room);
+            if (target == null || target.equals(roomOwner.get(room))) continue;
+            migrate(room, roomOwner.get(room), target);
+        }
+    }
+
+    /**
+     * Copia l'estat d'una sala al servidor nou i hi reconnecta els clients.
+     * Els moviments rebuts pel servidor antic entre la còpia i la reconnexió es perden.
+     */
+    private void migrate(String room, String from, String to) {
+        migrating.add(room);
+        BackendLink source = from == null ? null : backends.get(from);
+        BackendLink target = backends.get(to);
+        JSONObject cached = snapshots.get(room);
+
+        CompletableFuture<JSONObject> snapshot = source != null && source.isOpen()
+                ? source.request(control(T_ROOM_SNAPSHOT, room))
+                        .thenApply(r -> r.optJSONObject(K_VALUE))
+                        .exceptionally(e -> null)
+                : CompletableFuture.completedFuture(null);
+
+        snapshot
+            .thenCompose(state -> {
+                JSONObject value = state != null ? state : cached;
+                if (value == null) return CompletableFuture.completedFuture(null);
+                return target.request(control(T_ROOM_RESTORE, room).put(K_VALUE, value));
+            })
+            .whenComplete((r, e) -> loop.execute(() -> finishMigration(room, from, to, e)));
+    }
+
+    private void finishMigration(String room, String from, String to, Throwable error) {
+        migrating.remove(room);
+        Set<ClientProxy> members = roomMembers.get(room);
+        if (members != null && ring.contains(to)) {
+            if (error != null) System.out.println("Sala " + room + " traspassada sense estat: " + error);
+            roomOwner.put(room, to);
+            for (ClientProxy proxy : members) proxy.connect(roomUri(to, room));
+            System.out.println("Sala " + room + ": " + from + " -> " + to);
+        }
+        rebalance(); // l'anell pot haver canviat mentre durava el traspàs
+    }
+
+    private void checkHealth() {
+        for (BackendLink link : backends.values()) link.connectIfClosed();
+    }
+
+    /** Desa l'estat de cada sala, per poder-la restaurar si el seu servidor cau. */
+    private void refreshSnapshots() {
+        for (Map.Entry<String, String> e : roomOwner.entrySet()) {
+            String room = e.getKey();
+            BackendLink link = backends.get(e.getValue());
+            if (link == null || !link.isOpen() || migrating.contains(room)) continue;
+
+            link.request(control(T_ROOM_SNAPSHOT, room)).thenAccept(r -> {
+                JSONObject value = r.optJSONObject(K_VALUE);
+                if (value == null) return;
+                loop.execute(() -> {
+                    if (roomMembers.containsKey(room)) snapshots.put(room, value);
+                });
+            });
+        }
+    }
+
+    private static JSONObject control(String type, String room) {
+        return new JSONObject().put(K_TYPE, type).put(K_ROOM, room);
+    }
+
+    private static URI roomUri(String node, String room) {
+        return URI.create("ws://" + node + ROOM_PATH + room);
+    }
+
+    // ----------------- Lifecycle util -----------------
+
+    private static void registerShutdownHook(Main gateway) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Aturant passarel·la (shutdown hook)...");
+            try {
+                gateway.loop.shutdownNow();
+                gateway.backends.values().forEach(BackendLink::close);
+                gateway.stop(1000);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                Thread.currentThread().interrupt();
+            }
+            System.out.println("Passarel·la aturada.");
+        }));
+    }
+
+    private static void awaitForever() {
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            latch.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Punt d'entrada. El primer número és el port; la resta, els servidors. */
+    public static void main(String[] args) {
+        int port = -1;
+        List<String> nodes = new ArrayList<>();
+        for (String arg : args) {
+            if (!BACKEND.matcher(arg).matches()) continue; // p. ex. la plataforma que passa run.sh
+            if (port < 0 && !arg.contains(":")) port = Integer.parseInt(arg);
+            else nodes.add(arg.contains(":") ? arg : "localhost:" + arg);
+        }
+        if (port < 0) port = DEFAULT_PORT;
+        if (nodes.isEmpty()) nodes = DEFAULT_BACKENDS;
+
+        Main gateway = Main.create(new InetSocketAddress(port), nodes);
+        gateway.start();
+        registerShutdownHook(gateway);
+
+        System.out.println("Gateway running on port " + port + ". Press Ctrl+C to stop it.");
+        awaitForever();
+    }
+}
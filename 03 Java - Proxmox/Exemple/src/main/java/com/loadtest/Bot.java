@@ -0,0 +1,198 @@
+package com.loadtest;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.protocols.Protocol;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.shared.BinaryCodec;
+import com.shared.Board;
+import com.shared.ClientData;
+import com.shared.DeflateExtension;
+import com.shared.GameObject;
+
+/**
+ * Un client del joc sense interfície: envia moviments i mesura quan el servidor els retorna.
+ *
+ * Es connecta igual que UtilsWS (Draft_6455 amb el subprotocol binari o JSON, i
+ * permessage-deflate si es demana), confirma
+ * cada "serverData" amb "clientAck" com el client real i no es reconnecta mai: una
+ * connexió tancada compta com a desconnexió.
+ *
+ * Latència: el servidor no retorna cap camp del client, només la posició del cursor.
+ * Per això cada moviment del cursor va a una posició nova que identifica l'enviament
+ * (un número de seqüència recorrent el tauler en ordre), i el bot en guarda l'hora
+ * d'enviament. Quan un "serverData" porta el seu cursor en aquella posició, la
+ * latència és el temps des de l'enviament. Els moviments que el servidor agrupa amb
+ * un de posterior no tornen mai i no es compten.
+ */
+final class Bot extends WebSocketClient {
+
+    /** Enviaments pendents que es recorden (a 30 missatges/s, més de 30 s). */
+    private static final int WINDOW = 1024;
+
+    /** Posicions diferents del tauler (un píxel cadascuna). */
+    private static final int SPAN_X = Board.COLS * Board.CELL_SIZE;
+    private static final int POSITIONS = SPAN_X * Board.ROWS * Board.CELL_SIZE;
+
+    private static final List<String> OBJECT_IDS = List.of("O0", "O1");
+
+    private final Stats stats;
+    private final double objectRatio;
+
+    /** S'ha negociat el protocol binari (si s'ha demanat i el servidor l'accepta). */
+    private volatile boolean binary;
+
+    /** Nom i color assignats pel servidor (fins llavors no s'envia res). */
+    private volatile String name;
+    private final String color = "GRAY";
+
+    /** Seqüència del següent moviment del cursor (només el fil que envia). */
+    private int seq = ThreadLocalRandom.current().nextInt(POSITIONS);
+
+    /** Hora d'enviament (nanoTime) de cada seqüència pendent, per seq % WINDOW. */
+    private final long[] sentAt = new long[WINDOW];
+    private final int[] sentSeq = new int[WINDOW];
+
+    private volatile boolean opened;
+
+    Bot(URI uri, boolean binary, boolean deflate, double objectRatio, Stats stats) {
+        super(uri, new Draft_6455(deflate ? List.of(new DeflateExtension()) : Collections.emptyList(), binary
+                ? List.of(new Protocol(BinaryCodec.PROTOCOL), new Protocol(""))
+                : List.of(new Protocol(""))));
+        this.objectRatio = objectRatio;
+        this.stats = stats;
+    }
+
+    /** Envia un moviment (del cursor o d'un objecte); el crida el planificador de Main. */
+    void step() {
+        if (name == null || !isOpen()) return;
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        try {
+            if (rnd.nextDouble() < objectRatio) {
+                GameObject go = new GameObject(OBJECT_IDS.get(rnd.nextInt(OBJECT_IDS.size())),
+                        Board.START_X + rnd.nextInt(SPAN_X), Board.START_Y + rnd.nextInt(SPAN_X), 1, 1);
+                if (binary) send(BinaryCodec.encodeObjectMoving(go, 0));
+                else send(message("clientObjectMoving", go.toJSON()));
+            } else {
+                int s = seq;
+                seq = (s + 1) % POSITIONS;
+                int x = Board.START_X + s % SPAN_X;
+                int y = Board.START_Y + s / SPAN_X;
+                ClientData cd = new ClientData(name, color, x, y,
+                        (y - Board.START_Y) / Board.CELL_SIZE, (x - Board.START_X) / Board.CELL_SIZE);
+                markSent(s, System.nanoTime());
+                if (binary) send(BinaryCodec.encodeMouseMoving(cd));
+                else send(message("clientMouseMoving", cd.toJSON()));
+            }
+            stats.sent.increment();
+        } catch (RuntimeException e) {
+            // la connexió s'ha tancat entre isOpen() i send(): ho compta onClose()
+        }
+    }
+
+    private static String message(String type, Object value) {
+        return new JSONObject().put("type", type).put("value", value).toString();
+    }
+
+    private synchronized void markSent(int s, long nanos) {
+        sentAt[s % WINDOW] = nanos;
+        sentSeq[s % WINDOW] = s;
+    }
+
+    /** Hora d'enviament de la seqüència, o 0 si no està pendent (ja s'ha comptat o és massa antiga). */
+    private synchronized long takeSent(int s) {
+        int slot = s % WINDOW;
+        if (sentSeq[slot] != s) return 0;
+        long nanos = sentAt[slot];
+        sentAt[slot] = 0;
+        return nanos;
+    }
+
+    /** El servidor ha retornat el cursor d'aquest bot a la posició (x, y). */
+    private void echo(int x, int y) {
+        int s = (y - Board.START_Y) * SPAN_X + (x - Board.START_X);
+        if (s < 0 || s >= POSITIONS) return;
+        long sent = takeSent(s);
+        if (sent != 0) stats.latency((System.nanoTime() - sent) / 1_000);
+    }
+
+    // ----------------- WebSocketClient -----------------
+
+    @Override
+    public void onOpen(ServerHandshake handshake) {
+        binary = getDraft() instanceof Draft_6455 draft && draft.getProtocol() != null
+                && BinaryCodec.PROTOCOL.equals(draft.getProtocol().getProvidedProtocol());
+        opened = true;
+        stats.connected.incrementAndGet();
+    }
+
+    @Override
+    public void onMessage(String message) {
+        JSONObject obj = new JSONObject(message);
+        switch (obj.optString("type", "")) {
+            case "clientName" -> name = obj.optString("value", null);
+            case "serverData" -> {
+                stats.received.increment();
+                stats.bytesIn.add(message.length());
+                send(new JSONObject().put("type", "clientAck").put("value", obj.getLong("tick")).toString());
+                JSONArray clients = obj.optJSONArray("clientsList");
+                if (clients == null) return;
+                for (int i = 0; i < clients.length(); i++) {
+                    ClientData cd = ClientData.fromJSON(clients.getJSONObject(i));
+                    if (cd.name != null && cd.name.equals(name)) echo(cd.mouseX, cd.mouseY);
+                }
+            }
+            default -> {
+                // countdown i altres: no afecten la mesura
+            }
+        }
+    }
+
+    @Override
+    public void onMessage(ByteBuffer message) {
+        int bytes = message.remaining();
+        BinaryCodec.Reader in = new BinaryCodec.Reader(message);
+        switch (in.type()) {
+            case BinaryCodec.T_CLIENT_NAME -> name = in.getString();
+            case BinaryCodec.T_SERVER_DATA -> {
+                stats.received.increment();
+                stats.bytesIn.add(bytes);
+                long tick = in.getVarLong();
+                send(BinaryCodec.encodeAck(tick));
+                in.getVarLong(); // baseTick + 1
+                int n = in.getCount();
+                for (int i = 0; i < n; i++) {
+                    ClientData cd = in.getClient();
+                    if (cd.name != null && cd.name.equals(name)) echo(cd.mouseX, cd.mouseY);
+                }
+            }
+            default -> {
+                // countdown i altres: no afecten la mesura
+            }
+        }
+    }
+
+    @Override
+    public void onClose(int code, String reason, boolean remote) {
+        if (opened) {
+            stats.connected.decrementAndGet();
+            stats.disconnects.increment();
+        } else {
+            stats.connectFailures.increment();
+        }
+    }
+
+    @Override
+    public void onError(Exception ex) {
+        // onClose() ve després i ho compta
+    }
+}
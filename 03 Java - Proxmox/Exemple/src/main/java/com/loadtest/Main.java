@@ -0,0 +1,140 @@
+package com.loadtest;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generador de càrrega: obre molts clients sense interfície (Bot) contra com.server.Main
+ * (o com.gateway.Main) i en mesura el rendiment.
+ *
+ * Cada bot envia 'rate' moviments per segon (una fracció 'objects' són moviments
+ * d'objectes i la resta del cursor). Cada 'report' segons s'escriu una línia amb
+ * els bots connectats, els missatges enviats i rebuts per segon, els percentils
+ * p50/p99/p999 de la latència de l'interval i les desconnexions; en acabar, el
+ * resum de tota la prova.
+ *
+ * Ús: com.loadtest.Main [url] [--bots=N] [--rate=missatges/s] [--objects=fracció]
+ *                       [--duration=s] [--ramp=connexions/s] [--report=s] [--binary]
+ *                       [--deflate]
+ *
+ * Cada connexió de Java-WebSocket fa servir dos fils; per a molts milers de bots
+ * convé repartir-los en diversos processos.
+ */
+public class Main {
+
+    private static final String DEFAULT_URL = "ws://localhost:3000";
+
+    private String url = DEFAULT_URL;
+    private int bots = 100;
+    private int rate = 30;
+    private double objects = 0.2;
+    private int durationSeconds = 60;
+    private int rampPerSecond = 200;
+    private int reportSeconds = 5;
+    private boolean binary;
+    private boolean deflate;
+
+    private final Stats stats = new Stats();
+
+    private static Main parse(String[] args) {
+        Main m = new Main();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                m.url = arg;
+                continue;
+            }
+            String[] kv = arg.substring(2).split("=", 2);
+            String value = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "bots" -> m.bots = Integer.parseInt(value);
+                case "rate" -> m.rate = Integer.parseInt(value);
+                case "objects" -> m.objects = Double.parseDouble(value);
+                case "duration" -> m.durationSeconds = Integer.parseInt(value);
+                case "ramp" -> m.rampPerSecond = Integer.parseInt(value);
+                case "report" -> m.reportSeconds = Integer.parseInt(value);
+                case "binary" -> m.binary = true;
+                case "deflate" -> m.deflate = true;
+                default -> throw new IllegalArgumentException("Opció desconeguda: " + arg);
+            }
+        }
+        return m;
+    }
+
+    private void run() throws Exception {
+        URI uri = new URI(url);
+        System.out.printf(Locale.ROOT, "Càrrega: %d bots a %s, %d missatges/s cadascun (%.0f%% objectes), %s, %d s%n",
+                bots, uri, rate, objects * 100, (binary ? "binari" : "JSON") + (deflate ? " + deflate" : ""), durationSeconds);
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Runtime.getRuntime().availableProcessors(), r -> {
+                    Thread t = new Thread(r, "LoadTest");
+                    t.setDaemon(true);
+                    return t;
+                });
+
+        // Connexions esglaonades a 'ramp' per segon; cada bot envia amb un desfasament aleatori
+        List<Bot> all = new ArrayList<>(bots);
+        long periodMicros = 1_000_000L / Math.max(1, rate);
+        long rampGapMicros = 1_000_000L / Math.max(1, rampPerSecond);
+        long start = System.nanoTime();
+        for (int i = 0; i < bots; i++) {
+            Bot bot = new Bot(uri, binary, deflate, objects, stats);
+            all.add(bot);
+            long openAt = i * rampGapMicros;
+            scheduler.schedule(bot::connect, openAt, TimeUnit.MICROSECONDS);
+            long firstStep = openAt + ThreadLocalRandom.current().nextLong(periodMicros);
+            scheduler.scheduleAtFixedRate(bot::step, firstStep, periodMicros, TimeUnit.MICROSECONDS);
+        }
+
+        long lastSent = 0, lastReceived = 0;
+        long lastReport = start;
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        while (System.nanoTime() < end) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(reportSeconds));
+            long now = System.nanoTime();
+            double secs = (now - lastReport) / 1e9;
+            long sent = stats.sent.sum(), received = stats.received.sum();
+            System.out.printf(Locale.ROOT,
+                    "[%4ds] bots %d/%d  enviats %.0f/s  rebuts %.0f/s  latència p50 %s p99 %s p999 %s  desconnexions %d  errors %d%n",
+                    TimeUnit.NANOSECONDS.toSeconds(now - start), stats.connected.get(), bots,
+                    (sent - lastSent) / secs, (received - lastReceived) / secs,
+                    ms(stats.interval.percentile(0.50)), ms(stats.interval.percentile(0.99)),
+                    ms(stats.interval.percentile(0.999)),
+                    stats.disconnects.sum(), stats.connectFailures.sum());
+            stats.interval.reset();
+            lastSent = sent;
+            lastReceived = received;
+            lastReport = now;
+        }
+
+        // El resum es fa abans de tancar, perquè els tancaments propis no comptin com a desconnexions
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT,
+                "Resum: %d enviats (%.0f/s), %d rebuts (%.0f/s, %.1f KB/s), %d latències%n"
+                        + "       p50 %s  p99 %s  p999 %s  desconnexions %d  errors de connexió %d%n",
+                stats.sent.sum(), stats.sent.sum() / secs,
+                stats.received.sum(), stats.received.sum() / secs, stats.bytesIn.sum() / secs / 1024,
+                stats.total.count(),
+                ms(stats.total.percentile(0.50)), ms(stats.total.percentile(0.99)), ms(stats.total.percentile(0.999)),
+                stats.disconnects.sum(), stats.connectFailures.sum());
+
+        scheduler.shutdownNow();
+        for (Bot bot : all) bot.close();
+    }
+
+    private static String ms(long micros) {
+        return String.format(Locale.ROOT, "%.1fms", micros / 1000.0);
+    }
+
+    /** Punt d'entrada. */
+    public static void main(String[] args) throws Exception {
+        parse(args).run();
+        System.exit(0);
+    }
+}
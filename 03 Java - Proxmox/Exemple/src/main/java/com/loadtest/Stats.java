@@ -0,0 +1,33 @@
+package com.loadtest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.shared.LatencyHistogram;
+
+/** Comptadors compartits per tots els bots. */
+final class Stats {
+
+    /** Bots amb la connexió oberta. */
+    final AtomicInteger connected = new AtomicInteger();
+
+    /** Missatges de moviment enviats (cursor i objectes). */
+    final LongAdder sent = new LongAdder();
+
+    /** Missatges "serverData" rebuts i la seva mida total. */
+    final LongAdder received = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+
+    /** Connexions tancades després d'obrir-se, i connexions que no s'han arribat a obrir. */
+    final LongAdder disconnects = new LongAdder();
+    final LongAdder connectFailures = new LongAdder();
+
+    /** Latència d'anada i tornada dels moviments del cursor: la de tota la prova i la de l'interval. */
+    final LatencyHistogram total = new LatencyHistogram();
+    final LatencyHistogram interval = new LatencyHistogram();
+
+    void latency(long micros) {
+        total.record(micros);
+        interval.record(micros);
+    }
+}
@@ -0,0 +1,87 @@
+package com.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registre de canvis per entitat, indexat per tick del servidor.
+ *
+ * Per a cada clau (nom de client o id d'objecte) guarda l'últim tick en què
+ * l'entitat ha canviat o ha estat eliminada. Amb això es pot calcular un delta
+ * respecte qualsevol tick base: entitats modificades després de la base i
+ * entitats eliminades després de la base.
+ *
+ * Les eliminacions només es recorden durant una finestra de ticks; un client
+ * amb una base més antiga que la finestra ha de rebre un keyframe complet.
+ *
+ * No és segur per a ús concurrent: només l'utilitza el fil del tick.
+ */
+final class ChangeTracker {
+
+    /** Últim tick en què ha canviat cada entitat viva. */
+    private final Map<String, Long> changedAt = new HashMap<>();
+
+    /** Tick en què s'ha eliminat cada entitat (dins la finestra d'història). */
+    private final Map<String, Long> removedAt = new HashMap<>();
+
+    /**
+     * Marca una entitat com a modificada (o creada) en el tick indicat.
+     *
+     * @param key clau de l'entitat
+     * @param tick tick del canvi
+     */
+    void changed(String key, long tick) {
+        if (key == null) return;
+        changedAt.put(key, tick);
+        removedAt.remove(key);
+    }
+
+    /**
+     * Marca una entitat com a eliminada en el tick indicat.
+     *
+     * @param key clau de l'entitat
+     * @param tick tick de l'eliminació
+     */
+    void removed(String key, long tick) {
+        if (key == null) return;
+        changedAt.remove(key);
+        removedAt.put(key, tick);
+    }
+
+    /**
+     * Indica si una entitat ha canviat després del tick base.
+     *
+     * @param key clau de l'entitat
+     * @param baseTick tick base del client
+     * @return true si el client encara no coneix l'estat actual
+     */
+    boolean changedSince(String key, long baseTick) {
+        Long t = changedAt.get(key);
+        return t == null || t > baseTick;
+    }
+
+    /**
+     * Retorna les claus eliminades després del tick base.
+     *
+     * @param baseTick tick base del client
+     * @return llista de claus eliminades
+     */
+    List<String> removedSince(long baseTick) {
+        List<String> rst = new ArrayList<>();
+        for (Map.Entry<String, Long> e : removedAt.entrySet()) {
+            if (e.getValue() > baseTick) rst.add(e.getKey());
+        }
+        return rst;
+    }
+
+    /**
+     * Oblida les eliminacions anteriors al tick indicat.
+     *
+     * @param oldestTick tick més antic que encara es pot fer servir com a base
+     */
+    void prune(long oldestTick) {
+        removedAt.values().removeIf(t -> t <= oldestTick);
+    }
+}
@@ -3,110 +3,128 @@ package com.server;
 import org.java_websocket.WebSocket;
 import org.json.JSONArray;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * Registre de clients connectats amb gestió interna del pool de noms.
+ * Registre de clients connectats amb assignació d'identificadors i noms.
+ *
+ * Cada client rep un id enter, el més baix que estigui lliure: els ids dels clients
+ * que se'n van es tornen a fer servir, de manera que sempre són compactes (0..N-1
+ * amb N clients). El nom visible es deriva de l'id: els primers clients reben els
+ * noms de la llista base tal qual, i quan s'acaben es tornen a fer servir amb un
+ * número ("Bulbasaur2", ...). Així dos clients connectats alhora no tenen mai el
+ * mateix nom, per molts que n'hi hagi.
  *
  * Manté dos mapes bidireccionals:
- * - WebSocket a nom de client
+ * - WebSocket a connexió (id i nom)
  * - Nom de client a WebSocket
  *
- * També integra la lògica d'un pool de noms disponibles. Quan un client es connecta,
- * se li assigna un nom lliure. Quan es desconnecta, el nom torna al pool per ser reutilitzat.
+ * A més dels mapes, manté un array de connexions en còpia en escriptura: add() i
+ * remove() el recreen, i els recorreguts (broadcasts, mètriques) el llegeixen sense
+ * copiar res ni bloquejar.
  *
- * Aquesta classe és segura per a ús concurrent gràcies a l'ús de ConcurrentHashMap
- * i ConcurrentLinkedQueue. Els mètodes que modifiquen el pool utilitzen sincronització
- * per garantir la coherència durant reinicialitzacions.
+ * Les consultes són segures per a ús concurrent gràcies a ConcurrentHashMap; add() i
+ * remove() són sincronitzats per mantenir coherents els mapes, els ids i l'array.
  */
 final class ClientRegistry {
 
-    /** Mapa de sockets a noms de client. */
-    private final Map<WebSocket, String> bySocket = new ConcurrentHashMap<>();
+    /** Connexió registrada: socket, id i nom assignat. */
+    record Connection(WebSocket socket, int id, String name) {}
+
+    private static final Connection[] NO_CONNECTIONS = new Connection[0];
+
+    /** Mapa de sockets a connexions. */
+    private final Map<WebSocket, Connection> bySocket = new ConcurrentHashMap<>();
 
     /** Mapa de noms de client a sockets. */
     private final Map<String, WebSocket> byName = new ConcurrentHashMap<>();
 
-    /** Cua de noms disponibles per assignar. */
-    private final Queue<String> pool = new ConcurrentLinkedQueue<>();
+    /** Connexions actuals; l'array no es modifica mai, es substitueix sencer. */
+    private volatile Connection[] connections = NO_CONNECTIONS;
 
-    /** Llista base de noms per reomplir el pool quan s'esgoti. */
+    /** Ids en ús (protegit per 'this'). */
+    private final BitSet usedIds = new BitSet();
+
+    /** Nom de cada id ja calculat (protegit per 'this'); el mateix String per a cada id. */
+    private final List<String> namesById = new ArrayList<>();
+
+    /** Llista base de noms. */
     private final List<String> seedNames;
 
     /**
-     * Crea un nou registre amb el conjunt inicial de noms disponibles.
+     * Crea un nou registre.
      *
-     * @param seedNames llista inicial de noms per al pool
+     * @param seedNames noms base per als clients
      */
     ClientRegistry(List<String> seedNames) {
         this.seedNames = seedNames;
-        resetPool();
-    }
-
-    /**
-     * Reinicia el pool de noms amb la llista inicial.
-     * Aquest mètode és sincronitzat per evitar condicions de cursa durant el buidat i reompliment.
-     */
-    private synchronized void resetPool() {
-        pool.clear();
-        pool.addAll(seedNames);
-    }
-
-    /**
-     * Extreu un nom disponible del pool. Si el pool està buit, es reinicia i es torna a intentar.
-     *
-     * @return un nom lliure extret del pool
-     */
-    private String takeOrRecycle() {
-        String name = pool.poll();
-        if (name == null) {
-            resetPool();
-            name = pool.poll();
-        }
-        return name;
     }
 
-    /**
-     * Retorna un nom al pool de disponibles.
-     *
-     * @param name el nom a retornar; si és null no es fa res
-     */
-    private void giveBack(String name) {
-        if (name != null) {
-            pool.offer(name);
+    /** Nom visible de l'id: el nom base, amb un número a partir de la segona volta. */
+    private String nameFor(int id) {
+        while (namesById.size() <= id) {
+            int n = namesById.size();
+            String base = seedNames.get(n % seedNames.size());
+            int round = n / seedNames.size();
+            namesById.add(round == 0 ? base : base + (round + 1));
         }
+        return namesById.get(id);
     }
 
     /**
-     * Afegeix un client nou i li assigna un nom lliure.
+     * Afegeix un client nou i li assigna l'id lliure més baix i el seu nom.
      *
      * @param socket socket del client connectat
-     * @return el nom assignat al client
+     * @return la connexió registrada
      */
-    String add(WebSocket socket) {
-        String name = takeOrRecycle();
-        bySocket.put(socket, name);
-        byName.put(name, socket);
-        return name;
+    synchronized Connection add(WebSocket socket) {
+        Connection previous = bySocket.get(socket);
+        if (previous != null) return previous;
+
+        int id = usedIds.nextClearBit(0);
+        usedIds.set(id);
+        Connection conn = new Connection(socket, id, nameFor(id));
+        bySocket.put(socket, conn);
+        byName.put(conn.name(), socket);
+
+        Connection[] current = connections;
+        Connection[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = conn;
+        connections = next;
+        return conn;
     }
 
     /**
-     * Elimina un client del registre i retorna el nom al pool.
+     * Elimina un client del registre i allibera el seu id (i, per tant, el seu nom).
      *
      * @param socket socket del client a eliminar
      * @return el nom que estava assignat, o null si no existia
      */
-    String remove(WebSocket socket) {
-        String name = bySocket.remove(socket);
-        if (name != null) {
-            byName.remove(name);
-            giveBack(name);
+    synchronized String remove(WebSocket socket) {
+        Connection conn = bySocket.remove(socket);
+        if (conn == null) return null;
+        byName.remove(conn.name());
+        usedIds.clear(conn.id());
+        connections = without(connections, socket);
+        return conn.name();
+    }
+
+    /** Còpia de l'array sense la connexió del socket indicat. */
+    private static Connection[] without(Connection[] current, WebSocket socket) {
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].socket() != socket) continue;
+            if (current.length == 1) return NO_CONNECTIONS;
+            Connection[] next = new Connection[current.length - 1];
+            System.arraycopy(current, 0, next, 0, i);
+            System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+            return next;
         }
-        return name;
+        return current;
     }
 
     /**
@@ -126,7 +144,8 @@ final class ClientRegistry {
      * @return nom del client o null si no existeix
      */
     String nameBySocket(WebSocket socket) {
-        return bySocket.get(socket);
+        Connection conn = bySocket.get(socket);
+        return conn == null ? null : conn.name();
     }
 
     /**
@@ -153,13 +172,24 @@ final class ClientRegistry {
         return remove(socket);
     }
 
+    /** Nombre de clients registrats. */
+    int size() {
+        return connections.length;
+    }
+
+    /** Indica si no hi ha cap client registrat. */
+    boolean isEmpty() {
+        return connections.length == 0;
+    }
+
     /**
-     * Retorna una còpia immutable de l'estat actual del mapa socket a nom.
-     * Útil per iteracions fora del lock intern sense risc de ConcurrentModification.
+     * Retorna les connexions actuals sense copiar-les. L'array no canvia mai (un add()
+     * o remove() posterior en crea un de nou), així que es pot recórrer des de
+     * qualsevol fil; no s'ha de modificar.
      *
-     * @return mapa immutable de WebSocket a nom
+     * @return array de connexions en ordre d'arribada
      */
-    Map<WebSocket, String> snapshot() {
-        return Map.copyOf(bySocket);
+    Connection[] connections() {
+        return connections;
     }
 }
@@ -0,0 +1,189 @@
+package com.server;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.java_websocket.WebSocket;
+
+/**
+ * Clients d'una sala en arrays paral·lels de primitius (un array per camp), indexats
+ * per la posició del client a la taula.
+ *
+ * Les posicions 0..size()-1 sempre estan ocupades: quan un client surt, l'últim passa
+ * al seu lloc. Així el tick recorre els clients amb un bucle sobre enters, sense
+ * iteradors, sense objectes per client i sense calcular cap hash de String. El nom
+ * només es fa servir per escriure'l als missatges.
+ *
+ * Només la fa servir el fil del tick de la sala.
+ */
+final class ClientTable {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private WebSocket[] conns = new WebSocket[INITIAL_CAPACITY];
+    private InputSlot[] inputs = new InputSlot[INITIAL_CAPACITY];
+    private String[] names = new String[INITIAL_CAPACITY];
+    private int[] colors = new int[INITIAL_CAPACITY];
+    private int[] mouseX = new int[INITIAL_CAPACITY];
+    private int[] mouseY = new int[INITIAL_CAPACITY];
+    private int[] rows = new int[INITIAL_CAPACITY];
+    private int[] cols = new int[INITIAL_CAPACITY];
+
+    /** Última entrada aplicada de cada client (el "seq" que es retorna a la predicció del client). */
+    private long[] seqs = new long[INITIAL_CAPACITY];
+
+    /** Últim tick en què ha canviat cada client (per calcular deltes). */
+    private long[] changedAt = new long[INITIAL_CAPACITY];
+
+    private int size;
+
+    /** Posició de cada connexió (només per a entrades i sortides). */
+    private final Map<WebSocket, Integer> indexByConn = new HashMap<>();
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Posició de la connexió, o -1 si no és a la taula. */
+    int indexOf(WebSocket conn) {
+        Integer i = indexByConn.get(conn);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Afegeix un client amb el cursor fora del tauler (-1), com un ClientData nou.
+     *
+     * @param tick tick del canvi (el client nou s'envia a tothom)
+     */
+    void add(WebSocket conn, InputSlot input, String name, int color, long tick) {
+        if (indexByConn.containsKey(conn)) return;
+        if (size == conns.length) grow();
+        int i = size++;
+        conns[i] = conn;
+        inputs[i] = input;
+        names[i] = name;
+        colors[i] = color;
+        mouseX[i] = mouseY[i] = rows[i] = cols[i] = -1;
+        seqs[i] = 0;
+        changedAt[i] = tick;
+        indexByConn.put(conn, i);
+    }
+
+    /**
+     * Treu el client de la connexió; l'últim client ocupa el seu lloc.
+     *
+     * @return nom del client tret, o null si no hi era
+     */
+    String remove(WebSocket conn) {
+        Integer removed = indexByConn.remove(conn);
+        if (removed == null) return null;
+        int i = removed;
+        String name = names[i];
+        int last = --size;
+        if (i != last) {
+            conns[i] = conns[last];
+            inputs[i] = inputs[last];
+            names[i] = names[last];
+            colors[i] = colors[last];
+            mouseX[i] = mouseX[last];
+            mouseY[i] = mouseY[last];
+            rows[i] = rows[last];
+            cols[i] = cols[last];
+            seqs[i] = seqs[last];
+            changedAt[i] = changedAt[last];
+            indexByConn.put(conns[i], i);
+        }
+        conns[last] = null;
+        inputs[last] = null;
+        names[last] = null;
+        return name;
+    }
+
+    /**
+     * Mou el cursor d'un client.
+     *
+     * @return true si la posició ha canviat (i s'ha marcat amb el tick)
+     */
+    boolean setMouse(int i, int x, int y, int row, int col, long tick) {
+        if (mouseX[i] == x && mouseY[i] == y && rows[i] == row && cols[i] == col) return false;
+        mouseX[i] = x;
+        mouseY[i] = y;
+        rows[i] = row;
+        cols[i] = col;
+        changedAt[i] = tick;
+        return true;
+    }
+
+    /**
+     * Anota l'última entrada aplicada del client. El client es marca com a canviat
+     * perquè el número arribi al seu propietari encara que el cursor no s'hagi mogut.
+     *
+     * @return true si el número ha augmentat
+     */
+    boolean setSeq(int i, long seq, long tick) {
+        if (seq <= seqs[i]) return false;
+        seqs[i] = seq;
+        changedAt[i] = tick;
+        return true;
+    }
+
+    WebSocket conn(int i) {
+        return conns[i];
+    }
+
+    InputSlot input(int i) {
+        return inputs[i];
+    }
+
+    String name(int i) {
+        return names[i];
+    }
+
+    int color(int i) {
+        return colors[i];
+    }
+
+    int mouseX(int i) {
+        return mouseX[i];
+    }
+
+    int mouseY(int i) {
+        return mouseY[i];
+    }
+
+    int row(int i) {
+        return rows[i];
+    }
+
+    int col(int i) {
+        return cols[i];
+    }
+
+    long seq(int i) {
+        return seqs[i];
+    }
+
+    /** Indica si el client ha canviat després del tick base. */
+    boolean changedSince(int i, long baseTick) {
+        return changedAt[i] > baseTick;
+    }
+
+    private void grow() {
+        int n = conns.length * 2;
+        conns = Arrays.copyOf(conns, n);
+        inputs = Arrays.copyOf(inputs, n);
+        names = Arrays.copyOf(names, n);
+        colors = Arrays.copyOf(colors, n);
+        mouseX = Arrays.copyOf(mouseX, n);
+        mouseY = Arrays.copyOf(mouseY, n);
+        rows = Arrays.copyOf(rows, n);
+        cols = Arrays.copyOf(cols, n);
+        seqs = Arrays.copyOf(seqs, n);
+        changedAt = Arrays.copyOf(changedAt, n);
+    }
+}
@@ -0,0 +1,48 @@
+package com.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Cua de comandes cap a l'estat del món (molts productors, un sol consumidor).
+ *
+ * Els fils del WebSocket hi afegeixen comandes amb submit() sense bloquejar-se
+ * (ConcurrentLinkedQueue és lock-free). El fil del tick les aplica totes amb
+ * drain() abans de cada broadcast, de manera que l'estat del món només el toca
+ * un sol fil i l'ordre d'aplicació és el d'arribada.
+ */
+final class CommandQueue {
+
+    /** Màxim de comandes aplicades per drain(), perquè un allau no bloquegi el tick. */
+    private static final int MAX_PER_DRAIN = 100_000;
+
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Afegeix una comanda per aplicar-la al proper tick. Es pot cridar des de qualsevol fil.
+     *
+     * @param command comanda a executar al fil del tick
+     */
+    void submit(Runnable command) {
+        queue.offer(command);
+    }
+
+    /**
+     * Aplica les comandes pendents, en ordre d'arribada. Només l'ha de cridar el fil del tick.
+     *
+     * @return nombre de comandes aplicades
+     */
+    int drain() {
+        int applied = 0;
+        Runnable command;
+        while (applied < MAX_PER_DRAIN && (command = queue.poll()) != null) {
+            try {
+                command.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            applied++;
+        }
+        return applied;
+    }
+}
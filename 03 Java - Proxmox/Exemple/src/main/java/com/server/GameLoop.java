@@ -0,0 +1,155 @@
+package com.server;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bucle de joc d'una sala: passos de simulació a un ritme fix i enviaments de l'estat
+ * a un altre ritme, independent.
+ *
+ * No té fil propi: cada passada s'executa al pool compartit de RoomManager i, en
+ * acabar, es torna a programar per al següent pas o enviament pendent. Com que mai hi
+ * ha dues passades programades alhora, la sala continua sent d'un sol fil.
+ *
+ * A cada passada:
+ *  - S'executen els passos de simulació (Room.step()) que toquen pel temps transcorregut,
+ *    com a molt MAX_CATCH_UP_STEPS. Si la sala va més endarrerida, la resta de passos es
+ *    descarten (es compten a game_steps_dropped_total) en lloc d'encadenar-los.
+ *  - Si toca, s'envia l'estat (Room.send()). Els enviaments que no s'han pogut fer a
+ *    temps no es recuperen (game_sends_skipped_total).
+ *  - Si la passada ha durat més que el pressupost de la sala, es compta com a
+ *    desbordament (game_tick_overruns_total i overruns()).
+ *
+ * Amb scheduleAtFixedRate, en canvi, els ticks endarrerits s'executaven de cop un
+ * darrere l'altre sense que ningú ho veiés, i la simulació anava lligada als enviaments.
+ */
+final class GameLoop implements Runnable {
+
+    /** Passos de simulació màxims en una passada per recuperar el retard. */
+    static final int MAX_CATCH_UP_STEPS = 5;
+
+    /** Període de simulació, d'enviament i pressupost d'una passada. */
+    record Timing(long stepNanos, long sendNanos, long budgetNanos) {
+
+        /**
+         * @param simulationHz passos de simulació per segon
+         * @param sendHz enviaments de l'estat per segon
+         * @param budgetMillis durada màxima d'una passada, o 0 per fer servir el període de simulació
+         */
+        static Timing of(int simulationHz, int sendHz, double budgetMillis) {
+            long step = 1_000_000_000L / Math.max(1, simulationHz);
+            long send = 1_000_000_000L / Math.max(1, sendHz);
+            long budget = budgetMillis > 0 ? (long) (budgetMillis * 1_000_000) : step;
+            return new Timing(step, send, budget);
+        }
+    }
+
+    private final Room room;
+    private final ScheduledExecutorService scheduler;
+    private final Timing timing;
+    private final Metrics metrics;
+    private final Runnable onExpired;
+
+    /** Hora (nanoTime) del següent pas de simulació i del següent enviament. */
+    private long nextStepNanos;
+    private long nextSendNanos;
+
+    /** Passades que han superat el pressupost. */
+    private final LongAdder overruns = new LongAdder();
+
+    private volatile ScheduledFuture<?> future;
+    private volatile boolean cancelled;
+
+    /**
+     * @param onExpired es crida (al fil del pool) quan Room.step() indica que la sala
+     *                  fa massa que és buida
+     */
+    GameLoop(Room room, ScheduledExecutorService scheduler, Timing timing, Metrics metrics, Runnable onExpired) {
+        this.room = room;
+        this.scheduler = scheduler;
+        this.timing = timing;
+        this.metrics = metrics;
+        this.onExpired = onExpired;
+    }
+
+    /** Comença el bucle al cap de 'initialDelayNanos'. */
+    void start(long initialDelayNanos) {
+        nextStepNanos = System.nanoTime() + initialDelayNanos;
+        nextSendNanos = nextStepNanos;
+        future = scheduler.schedule(this, initialDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Atura el bucle (la passada en curs, si n'hi ha, acaba). */
+    void cancel() {
+        cancelled = true;
+        ScheduledFuture<?> f = future;
+        if (f != null) f.cancel(false);
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    long overruns() {
+        return overruns.sum();
+    }
+
+    @Override
+    public void run() {
+        if (cancelled) return;
+        long start = System.nanoTime();
+        try {
+            if (!runOnce(start)) onExpired.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        long end = System.nanoTime();
+        long elapsed = end - start;
+        metrics.tickSeconds.observeNanos(elapsed);
+        if (elapsed > timing.budgetNanos()) {
+            overruns.increment();
+            metrics.tickOverrun();
+        }
+        if (cancelled) return;
+        try {
+            long delay = Math.max(0, Math.min(nextStepNanos, nextSendNanos) - end);
+            future = scheduler.schedule(this, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // el pool s'està aturant
+        }
+    }
+
+    /** Passos i enviament pendents a l'hora 'now'. Torna false si la sala ha caducat. */
+    private boolean runOnce(long now) {
+        int steps = 0;
+        while (nextStepNanos <= now && steps < MAX_CATCH_UP_STEPS) {
+            boolean alive = room.step();
+            nextStepNanos += timing.stepNanos();
+            steps++;
+            if (!alive) {
+                metrics.steps(steps);
+                return false;
+            }
+        }
+        if (nextStepNanos <= now) {
+            long dropped = (now - nextStepNanos) / timing.stepNanos() + 1;
+            nextStepNanos += dropped * timing.stepNanos();
+            metrics.stepsDropped(dropped);
+        }
+        metrics.steps(steps);
+
+        if (nextSendNanos <= now) {
+            room.send();
+            nextSendNanos += timing.sendNanos();
+            if (nextSendNanos <= now) {
+                long skipped = (now - nextSendNanos) / timing.sendNanos() + 1;
+                nextSendNanos += skipped * timing.sendNanos();
+                metrics.sendsSkipped(skipped);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,271 @@
+package com.server;
+
+/**
+ * Lector en streaming dels missatges JSON dels clients, sense construir l'arbre.
+ *
+ * Recorre el text un sol cop i només en guarda el que el servidor fa servir: el
+ * "type" (com a tram del text, per comparar-lo sense crear cap String), el "seq"
+ * de les entrades, el "value" si és un número, i els camps numèrics coneguts de "value" si és un objecte
+ * (mouseX, mouseY, row, col, x, y, cols, rows, width, height) més el tram del seu
+ * "id". La resta de camps (p. ex. "name" i "color", que el servidor ja coneix)
+ * se salten. Les claus poden venir en qualsevol ordre.
+ *
+ * Una instància es reutilitza per a tots els missatges d'un fil: parse() no fa cap
+ * reserva de memòria (excepte per a números amb exponent, que no envia cap client).
+ * No és segura per a ús concurrent; Main en té una per fil.
+ */
+final class InputScanner {
+
+    /** Valor per als camps que no hi són (el mateix que fan servir ClientData i GameObject). */
+    static final int MISSING = -1;
+
+    private String src;
+    private int pos;
+
+    // ----- Resultat de l'últim parse() -----
+
+    private int typeStart, typeEnd;
+    private int idStart, idEnd;
+
+    /** "value" numèric (p. ex. el tick d'un clientAck). */
+    boolean hasScalar;
+    long scalar;
+
+    /** "seq" del missatge: número de seqüència de l'entrada del client (0 si no en porta). */
+    long seq;
+
+    int mouseX, mouseY, row, col;
+    int x, y, cols, rows;
+    int width, height;
+
+    /**
+     * Llegeix un missatge. Si torna false, el missatge no és JSON vàlid i s'ha d'ignorar.
+     */
+    boolean parse(String message) {
+        src = message;
+        pos = 0;
+        typeStart = typeEnd = idStart = idEnd = -1;
+        hasScalar = false;
+        scalar = 0;
+        seq = 0;
+        mouseX = mouseY = row = col = MISSING;
+        x = y = 0;
+        cols = rows = 1;
+        width = height = 0;
+
+        try {
+            skipWs();
+            expect('{');
+            skipWs();
+            if (peek() == '}') return true;
+            while (true) {
+                int keyStart = pos + 1;
+                skipString();
+                int keyEnd = pos - 1;
+                skipWs();
+                expect(':');
+                skipWs();
+
+                if (keyIs(keyStart, keyEnd, "type") && peek() == '"') {
+                    typeStart = pos + 1;
+                    skipString();
+                    typeEnd = pos - 1;
+                } else if (keyIs(keyStart, keyEnd, "seq") && isNumberStart(peek())) {
+                    seq = readLong();
+                } else if (keyIs(keyStart, keyEnd, "value")) {
+                    char c = peek();
+                    if (c == '{') readValueObject();
+                    else if (c == '-' || (c >= '0' && c <= '9')) {
+                        scalar = readLong();
+                        hasScalar = true;
+                    } else skipValue();
+                } else {
+                    skipValue();
+                }
+
+                skipWs();
+                char c = src.charAt(pos++);
+                if (c == '}') return true;
+                if (c != ',') return false;
+                skipWs();
+            }
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /** Indica si el "type" del missatge és exactament el text indicat. */
+    boolean typeIs(String type) {
+        return typeStart >= 0 && spanIs(typeStart, typeEnd, type);
+    }
+
+    /** Indica si el "value" tenia un "id" igual al text indicat. */
+    boolean idIs(String id) {
+        return idStart >= 0 && spanIs(idStart, idEnd, id);
+    }
+
+    /** Hash del tram de l'"id", igual que String.hashCode() (0 si no n'hi ha). */
+    int idHash() {
+        int h = 0;
+        for (int i = idStart; i < idEnd; i++) h = 31 * h + src.charAt(i);
+        return h;
+    }
+
+    /** "id" del "value" com a String nou (només per als objectes desconeguts). */
+    String id() {
+        return idStart >= 0 ? src.substring(idStart, idEnd) : null;
+    }
+
+    // ----------------- Lectura -----------------
+
+    private void readValueObject() {
+        expect('{');
+        skipWs();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            int keyStart = pos + 1;
+            skipString();
+            int keyEnd = pos - 1;
+            skipWs();
+            expect(':');
+            skipWs();
+
+            char c = peek();
+            if (c == '"') {
+                int start = pos + 1;
+                skipString();
+                if (keyIs(keyStart, keyEnd, "id")) {
+                    idStart = start;
+                    idEnd = pos - 1;
+                }
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                int v = (int) readLong();
+                switch (keyEnd - keyStart) {
+                    case 1 -> {
+                        if (keyIs(keyStart, keyEnd, "x")) x = v;
+                        else if (keyIs(keyStart, keyEnd, "y")) y = v;
+                    }
+                    case 3 -> {
+                        if (keyIs(keyStart, keyEnd, "row")) row = v;
+                        else if (keyIs(keyStart, keyEnd, "col")) col = v;
+                    }
+                    case 4 -> {
+                        if (keyIs(keyStart, keyEnd, "cols")) cols = v;
+                        else if (keyIs(keyStart, keyEnd, "rows")) rows = v;
+                    }
+                    case 5 -> {
+                        if (keyIs(keyStart, keyEnd, "width")) width = v;
+                    }
+                    case 6 -> {
+                        if (keyIs(keyStart, keyEnd, "mouseX")) mouseX = v;
+                        else if (keyIs(keyStart, keyEnd, "mouseY")) mouseY = v;
+                        else if (keyIs(keyStart, keyEnd, "height")) height = v;
+                    }
+                    default -> {
+                        // camp numèric desconegut
+                    }
+                }
+            } else {
+                skipValue();
+            }
+
+            skipWs();
+            char next = src.charAt(pos++);
+            if (next == '}') return;
+            if (next != ',') throw new NumberFormatException("JSON invàlid");
+            skipWs();
+        }
+    }
+
+    /** Llegeix un número i en torna la part entera. */
+    private long readLong() {
+        int start = pos;
+        boolean negative = peek() == '-';
+        if (negative) pos++;
+        long v = 0;
+        int digits = 0;
+        while (pos < src.length() && isDigit(src.charAt(pos))) {
+            v = v * 10 + (src.charAt(pos++) - '0');
+            digits++;
+        }
+        if (digits == 0) throw new NumberFormatException("Número invàlid");
+        if (pos < src.length() && src.charAt(pos) == '.') {
+            pos++;
+            while (pos < src.length() && isDigit(src.charAt(pos))) pos++;
+        }
+        if (pos < src.length() && (src.charAt(pos) == 'e' || src.charAt(pos) == 'E')) {
+            pos++;
+            if (src.charAt(pos) == '+' || src.charAt(pos) == '-') pos++;
+            while (pos < src.length() && isDigit(src.charAt(pos))) pos++;
+            return (long) Double.parseDouble(src.substring(start, pos));
+        }
+        return negative ? -v : v;
+    }
+
+    private void skipValue() {
+        char c = peek();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                char d = src.charAt(pos);
+                if (d == '"') {
+                    skipString();
+                    continue;
+                }
+                if (d == '{' || d == '[') depth++;
+                else if (d == '}' || d == ']') depth--;
+                pos++;
+            } while (depth > 0);
+        } else {
+            // número, true, false o null
+            while (pos < src.length()) {
+                char d = src.charAt(pos);
+                if (d == ',' || d == '}' || d == ']' || d <= ' ') break;
+                pos++;
+            }
+        }
+    }
+
+    /** Salta una cadena entre cometes (pos queda just després de la cometa final). */
+    private void skipString() {
+        expect('"');
+        while (true) {
+            char c = src.charAt(pos++);
+            if (c == '"') return;
+            if (c == '\\') pos++;
+        }
+    }
+
+    private void skipWs() {
+        while (pos < src.length() && src.charAt(pos) <= ' ') pos++;
+    }
+
+    private char peek() {
+        return src.charAt(pos);
+    }
+
+    private void expect(char c) {
+        if (src.charAt(pos++) != c) throw new NumberFormatException("S'esperava '" + c + "'");
+    }
+
+    private boolean keyIs(int start, int end, String key) {
+        return spanIs(start, end, key);
+    }
+
+    private boolean spanIs(int start, int end, String text) {
+        return end - start == text.length() && src.regionMatches(start, text, 0, text.length());
+    }
+
+    private static boolean isNumberStart(char c) {
+        return c == '-' || isDigit(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,71 @@
+package com.server;
+
+/**
+ * Última entrada pendent d'una connexió: el cursor, el tick confirmat i el número de
+ * seqüència de l'última entrada rebuda.
+ *
+ * Els fils del WebSocket hi escriuen els camps llegits del missatge i el tick de
+ * la sala els copia a la ClientTable. Es crea en entrar a la sala i es
+ * reutilitza per a tots els missatges, de manera que rebre un moviment no reserva
+ * memòria. Si arriba un moviment quan encara n'hi ha un de pendent, l'últim guanya.
+ */
+final class InputSlot {
+
+    private int mouseX, mouseY, row, col;
+    private boolean mouseDirty = false;
+    private long ack = -1;
+    private long seq = 0;
+
+    /**
+     * Desa un moviment del cursor.
+     *
+     * @return true si substitueix un moviment que encara no s'havia aplicat
+     */
+    synchronized boolean offerMouse(int mouseX, int mouseY, int row, int col) {
+        boolean replaced = mouseDirty;
+        this.mouseX = mouseX;
+        this.mouseY = mouseY;
+        this.row = row;
+        this.col = col;
+        mouseDirty = true;
+        return replaced;
+    }
+
+    /** Desa un tick confirmat (es queda el més alt). */
+    synchronized void offerAck(long tick) {
+        if (tick > ack) ack = tick;
+    }
+
+    /**
+     * Desa el número de seqüència d'una entrada (es queda el més alt). S'ha de cridar
+     * després de deixar l'entrada al seu slot: així, quan el tick llegeix el número
+     * abans de buidar els slots, totes les entrades fins a aquest número ja hi són.
+     */
+    synchronized void offerSeq(long seq) {
+        if (seq > this.seq) this.seq = seq;
+    }
+
+    /** Número de seqüència més alt rebut (0 si no n'hi ha cap). */
+    synchronized long seq() {
+        return seq;
+    }
+
+    /**
+     * Copia el moviment pendent (si n'hi ha) al client 'index' de la taula. Només des del fil del tick.
+     *
+     * @param tick tick amb què es marca el canvi
+     * @return true si el client ha canviat
+     */
+    synchronized boolean takeMouse(ClientTable table, int index, long tick) {
+        if (!mouseDirty) return false;
+        mouseDirty = false;
+        return table.setMouse(index, mouseX, mouseY, row, col, tick);
+    }
+
+    /** Retorna i oblida el tick confirmat pendent (-1 si no n'hi ha). */
+    synchronized long takeAck() {
+        long t = ack;
+        ack = -1;
+        return t;
+    }
+}
@@ -0,0 +1,92 @@
+package com.server;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.shared.Board;
+
+/**
+ * Zona d'interès d'una connexió: el seu viewport i el que hi veu.
+ *
+ * A cada tick es consulta l'InterestGrid amb el viewport ampliat MARGIN píxels per
+ * cada costat. Les entitats que hi entren es marquen com a canviades i les que en
+ * surten com a eliminades en els ChangeTracker de la zona, de manera que els deltes
+ * respecte el tick confirmat pel client inclouen les entrades i sortides de la vista
+ * igual que les altes i baixes del món.
+ *
+ * Només la fa servir el fil del tick de la sala.
+ */
+final class InterestArea {
+
+    /** Marge al voltant del viewport (perquè les entitats no apareguin de cop a la vora). */
+    static final int MARGIN = 2 * Board.CELL_SIZE;
+
+    private int x, y, width, height;
+
+    private Set<String> visibleClients = new HashSet<>();
+    private Set<String> visibleObjects = new HashSet<>();
+    private Set<String> scratch = new HashSet<>();
+
+    /** Entrades (changed) i sortides (removed) de la vista, per tick. */
+    final ChangeTracker clientVisibility = new ChangeTracker();
+    final ChangeTracker objectVisibility = new ChangeTracker();
+
+    InterestArea(int x, int y, int width, int height) {
+        setViewport(x, y, width, height);
+    }
+
+    void setViewport(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    Set<String> visibleClients() {
+        return visibleClients;
+    }
+
+    Set<String> visibleObjects() {
+        return visibleObjects;
+    }
+
+    /**
+     * Recalcula què hi ha dins la zona i registra les entrades i sortides.
+     *
+     * @param index índex del tick actual
+     * @param self nom del client de la connexió (sempre visible per a ell mateix)
+     * @param tick tick que s'està enviant
+     */
+    void update(InterestGrid index, String self, long tick) {
+        int qx = x - MARGIN, qy = y - MARGIN, qw = width + 2 * MARGIN, qh = height + 2 * MARGIN;
+
+        scratch.clear();
+        index.queryClients(qx, qy, qw, qh, scratch);
+        if (self != null) scratch.add(self);
+        Set<String> previous = visibleClients;
+        visibleClients = diff(previous, scratch, clientVisibility, tick);
+        scratch = previous;
+
+        scratch.clear();
+        index.queryObjects(qx, qy, qw, qh, scratch);
+        previous = visibleObjects;
+        visibleObjects = diff(previous, scratch, objectVisibility, tick);
+        scratch = previous;
+    }
+
+    /** Oblida les sortides anteriors al tick indicat. */
+    void prune(long oldestTick) {
+        clientVisibility.prune(oldestTick);
+        objectVisibility.prune(oldestTick);
+    }
+
+    private static Set<String> diff(Set<String> previous, Set<String> now, ChangeTracker tracker, long tick) {
+        for (String key : now) {
+            if (!previous.contains(key)) tracker.changed(key, tick);
+        }
+        for (String key : previous) {
+            if (!now.contains(key)) tracker.removed(key, tick);
+        }
+        return now;
+    }
+}
@@ -0,0 +1,111 @@
+package com.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.shared.Board;
+
+/**
+ * Índex espacial dels cursors i objectes d'una sala.
+ *
+ * Fa servir les mateixes cel·les de Board.CELL_SIZE píxels que el client (PlayGrid),
+ * agrupades en blocs de BLOCK_CELLS x BLOCK_CELLS perquè una consulta de la mida d'una
+ * finestra només recorri unes desenes de blocs. Els objectes que ocupen diversos
+ * blocs s'hi afegeixen a tots.
+ *
+ * Només cobreix el tauler i MARGIN píxels al voltant (MIN_X..MAX_X, MIN_Y..MAX_Y):
+ * les entitats i les consultes es retallen a aquesta zona, així que ni un viewport ni
+ * un objecte enormes (mides que envia el client) fan recórrer més blocs que el tauler.
+ *
+ * Es reconstrueix a cada tick (només quan algun client ha declarat viewport); no és
+ * segur per a ús concurrent.
+ */
+final class InterestGrid {
+
+    /** Cel·les de la graella per costat de bloc. */
+    private static final int BLOCK_CELLS = 4;
+    private static final int BLOCK_SIZE = BLOCK_CELLS * Board.CELL_SIZE;
+
+    /** Zona indexada en píxels (MAX_X i MAX_Y exclosos). */
+    static final int MIN_X = Board.START_X - InterestArea.MARGIN;
+    static final int MIN_Y = Board.START_Y - InterestArea.MARGIN;
+    static final int MAX_X = Board.START_X + Board.COLS * Board.CELL_SIZE + InterestArea.MARGIN;
+    static final int MAX_Y = Board.START_Y + Board.ROWS * Board.CELL_SIZE + InterestArea.MARGIN;
+
+    /** Blocs de la zona indexada. */
+    private static final int MIN_BX = block(MIN_X), MAX_BX = block(MAX_X - 1L);
+    private static final int MIN_BY = block(MIN_Y), MAX_BY = block(MAX_Y - 1L);
+
+    /** Entitat indexada: clau i rectangle en píxels. */
+    private record Entry(String key, int x, int y, int width, int height) {
+        boolean intersects(int rx, int ry, int rw, int rh) {
+            return x < (long) rx + rw && rx < (long) x + width && y < (long) ry + rh && ry < (long) y + height;
+        }
+    }
+
+    private final Map<Long, List<Entry>> clients = new HashMap<>();
+    private final Map<Long, List<Entry>> objects = new HashMap<>();
+
+    void clear() {
+        clients.clear();
+        objects.clear();
+    }
+
+    /** Indexa el cursor d'un client (un punt). */
+    void addClient(String name, int mouseX, int mouseY) {
+        add(clients, new Entry(name, mouseX, mouseY, 1, 1));
+    }
+
+    /** Indexa un objecte; cols i rows són la seva mida en cel·les (com a molt, la del tauler). */
+    void addObject(String id, int x, int y, int cols, int rows) {
+        int width = Math.max(1, Math.min(cols, Board.COLS) * Board.CELL_SIZE);
+        int height = Math.max(1, Math.min(rows, Board.ROWS) * Board.CELL_SIZE);
+        add(objects, new Entry(id, x, y, width, height));
+    }
+
+    /** Afegeix a 'out' els clients amb el cursor dins del rectangle. */
+    void queryClients(int x, int y, int width, int height, Set<String> out) {
+        query(clients, x, y, width, height, out);
+    }
+
+    /** Afegeix a 'out' els objectes que intersequen el rectangle. */
+    void queryObjects(int x, int y, int width, int height, Set<String> out) {
+        query(objects, x, y, width, height, out);
+    }
+
+    private static void add(Map<Long, List<Entry>> index, Entry e) {
+        int bx0 = Math.max(MIN_BX, block(e.x)), bx1 = Math.min(MAX_BX, block((long) e.x + e.width - 1));
+        int by0 = Math.max(MIN_BY, block(e.y)), by1 = Math.min(MAX_BY, block((long) e.y + e.height - 1));
+        for (int bx = bx0; bx <= bx1; bx++) {
+            for (int by = by0; by <= by1; by++) {
+                index.computeIfAbsent(key(bx, by), k -> new ArrayList<>(4)).add(e);
+            }
+        }
+    }
+
+    private static void query(Map<Long, List<Entry>> index, int x, int y, int width, int height, Set<String> out) {
+        if (width <= 0 || height <= 0) return;
+        int bx0 = Math.max(MIN_BX, block(x)), bx1 = Math.min(MAX_BX, block((long) x + width - 1));
+        int by0 = Math.max(MIN_BY, block(y)), by1 = Math.min(MAX_BY, block((long) y + height - 1));
+        for (int bx = bx0; bx <= bx1; bx++) {
+            for (int by = by0; by <= by1; by++) {
+                List<Entry> entries = index.get(key(bx, by));
+                if (entries == null) continue;
+                for (Entry e : entries) {
+                    if (e.intersects(x, y, width, height)) out.add(e.key);
+                }
+            }
+        }
+    }
+
+    private static int block(long px) {
+        return (int) Math.floorDiv(px, BLOCK_SIZE);
+    }
+
+    private static long key(int bx, int by) {
+        return ((long) bx << 32) | (by & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,168 @@
+package com.server;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.PingFrame;
+
+/**
+ * Qualitat de l'enllaç de cada client: RTT i bytes pendents d'enviar, i a partir
+ * d'aquí el divisor del ritme d'enviament de l'estat (1, 2 o 3: 30, 15 o 10 Hz a
+ * 30 FPS).
+ *
+ * Cada PING_INTERVAL_MILLIS, un fil propi envia a cada client un ping amb l'hora
+ * (nanoTime) com a càrrega; el pong la retorna i el RTT es suavitza com el de TCP
+ * (7/8 de l'anterior + 1/8 de la mostra). Al mateix moment es mira la cua de sortida
+ * del socket (WebSocketImpl.outQueue) i es decideix el divisor:
+ *  - Una cua de més de BACKLOG_HIGH_BYTES baixa un nivell de seguida.
+ *  - El RTT fixa un nivell mínim (RTT_LEVEL_NANOS).
+ *  - Per tornar a pujar un nivell cal que la cua sigui gairebé buida i que el RTT ho
+ *    permeti durant RECOVER_CHECKS comprovacions seguides, per no anar oscil·lant.
+ *
+ * El tick de la sala només llegeix el divisor (un volatile), així que decidir-lo no
+ * li costa res.
+ */
+final class LinkMonitor {
+
+    /** Divisors del ritme d'enviament per nivell. */
+    private static final int[] DIVISORS = { 1, 2, 3 };
+
+    /** RTT a partir del qual el client baixa a cada nivell (l'índex 0 no es fa servir). */
+    private static final long[] RTT_LEVEL_NANOS = { 0, 150_000_000L, 300_000_000L };
+
+    private static final long PING_INTERVAL_MILLIS = 1000;
+    private static final long BACKLOG_HIGH_BYTES = 64 * 1024;
+    private static final long BACKLOG_LOW_BYTES = 4 * 1024;
+    private static final int RECOVER_CHECKS = 3;
+
+    /** Estat de l'enllaç d'un client. */
+    static final class Link {
+        private volatile long rttNanos = -1;
+        private volatile long bufferedBytes;
+        private volatile int level;
+        private int goodChecks; // només el fil del monitor
+
+        /** RTT suavitzat, o -1 si encara no hi ha cap mostra. */
+        long rttNanos() {
+            return rttNanos;
+        }
+
+        long bufferedBytes() {
+            return bufferedBytes;
+        }
+
+        int divisor() {
+            return DIVISORS[level];
+        }
+
+        private synchronized void sample(long rtt) {
+            rttNanos = rttNanos < 0 ? rtt : (7 * rttNanos + rtt) / 8;
+        }
+    }
+
+    private final Map<WebSocket, Link> links = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    void add(WebSocket conn) {
+        links.putIfAbsent(conn, new Link());
+    }
+
+    void remove(WebSocket conn) {
+        links.remove(conn);
+    }
+
+    /** Enllaç del client, o null si no és un jugador. */
+    Link link(WebSocket conn) {
+        return links.get(conn);
+    }
+
+    /** Divisor del ritme d'enviament del client (1 si no se'n sap res). */
+    int divisor(WebSocket conn) {
+        Link l = links.get(conn);
+        return l == null ? 1 : l.divisor();
+    }
+
+    /** Arrenca els pings periòdics. */
+    synchronized void start() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "LinkMonitor");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, PING_INTERVAL_MILLIS, PING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    /** Pong rebut: si porta l'hora d'un ping nostre, n'actualitza el RTT. */
+    void pong(WebSocket conn, Framedata frame) {
+        Link l = links.get(conn);
+        ByteBuffer payload = frame.getPayloadData();
+        if (l == null || payload.remaining() != Long.BYTES) return; // p. ex. els pings de connectionLostTimeout
+        long rtt = System.nanoTime() - payload.getLong(payload.position());
+        if (rtt >= 0) l.sample(rtt);
+    }
+
+    /** Envia els pings i recalcula el divisor de cada client. */
+    private void check() {
+        long now = System.nanoTime();
+        for (Map.Entry<WebSocket, Link> e : links.entrySet()) {
+            WebSocket conn = e.getKey();
+            Link l = e.getValue();
+            if (!conn.isOpen()) continue;
+            try {
+                PingFrame ping = new PingFrame();
+                ping.setPayload(ByteBuffer.allocate(Long.BYTES).putLong(0, now));
+                conn.sendFrame(ping);
+            } catch (Exception ex) {
+                continue; // s'està tancant
+            }
+            l.bufferedBytes = bufferedBytes(conn);
+            adjust(l);
+        }
+    }
+
+    private static void adjust(Link l) {
+        int level = l.level;
+        int rttLevel = 0;
+        for (int i = RTT_LEVEL_NANOS.length - 1; i > 0; i--) {
+            if (l.rttNanos >= RTT_LEVEL_NANOS[i]) {
+                rttLevel = i;
+                break;
+            }
+        }
+        if (l.bufferedBytes > BACKLOG_HIGH_BYTES) {
+            level = Math.min(DIVISORS.length - 1, Math.max(level, rttLevel) + 1);
+            l.goodChecks = 0;
+        } else if (rttLevel > level) {
+            level = rttLevel;
+            l.goodChecks = 0;
+        } else if (rttLevel < level && l.bufferedBytes < BACKLOG_LOW_BYTES) {
+            if (++l.goodChecks >= RECOVER_CHECKS) {
+                level--;
+                l.goodChecks = 0;
+            }
+        } else {
+            l.goodChecks = 0;
+        }
+        l.level = level;
+    }
+
+    /** Bytes a la cua de sortida del socket (0 si no és un WebSocketImpl). */
+    static long bufferedBytes(WebSocket conn) {
+        if (!(conn instanceof WebSocketImpl impl)) return 0;
+        long pending = 0;
+        for (ByteBuffer b : impl.outQueue) pending += b.remaining();
+        return pending;
+    }
+}
@@ -3,39 +3,109 @@ package com.server;
 import org.java_websocket.server.WebSocketServer;
 import org.java_websocket.WebSocket;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.protocols.Protocol;
 
-import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
 
 
-import com.shared.ClientData;
+import com.shared.BinaryCodec;
+import com.shared.DeflateExtension;
 import com.shared.GameObject;
 
 /**
- * Servidor WebSocket que manté l'estat complet dels clients i objectes seleccionables.
+ * Servidor WebSocket que reparteix els clients en sales (partides) independents.
  *
  * Protocol simplificat:
- *  - Client -> Server:  { "type": "clientData", "data": { ...ClientData... } }
- *  - Server -> Clients: { "type": "state", "clientId": <clientId>, "clients": [ ...ClientData... ], "gameObjects": { ... }, "countdown": n? }
+ *  - Client -> Server:  { "type": "clientMouseMoving" | "clientObjectMoving", "seq": n, "value": { ... } }
+ *  - Client -> Server:  { "type": "clientAck", "value": tick }
+ *  - Client -> Server:  { "type": "clientViewport", "value": { "x", "y", "width", "height" } }
+ *  - Server -> Client:  { "type": "clientName", "value": nom }  (un cop, en connectar-se)
+ *  - Server -> Clients: { "type": "serverData", "tick": t, "baseTick": b,
+ *                         "clientsList": [ ... ], "objectsList": [ ... ],
+ *                         "removedClients": [ ... ], "removedObjects": [ ... ] }
+ *
+ * Els clients que negocien el subprotocol BinaryCodec.PROTOCOL reben i envien els
+ * mateixos missatges en format binari (veure com.shared.BinaryCodec).
+ *
+ * Sales: RoomManager agrupa els clients en sales de REQUIRED_CLIENTS jugadors.
+ * Cada sala (Room) té el seu món, el seu compte enrere i el seu tick, i tots els
+ * ticks comparteixen un pool de fils de la mida del nombre de nuclis.
+ *
+ * Fils: els fils del WebSocket no toquen mai l'estat d'una sala. Cada esdeveniment
+ * (connexió, desconnexió, moviment, ack) es converteix en una comanda a la cua de
+ * la sala, i cada pas de simulació de la sala les aplica totes.
+ *
+ * Un client que declara el seu viewport només rep els cursors i objectes que hi ha
+ * a prop (veure InterestArea); la resta ho reben tot.
+ *
+ * Cada entrada del client porta un número de seqüència creixent ("seq"). A cada
+ * client del "clientsList" hi ha el número de l'última entrada seva que el servidor
+ * ha aplicat: el client hi descarta les entrades confirmades i torna a aplicar les
+ * pendents sobre l'estat del servidor (predicció del client).
+ *
+ * Si "baseTick" és -1 el missatge és un keyframe (estat complet). Altrament és un
+ * delta respecte el tick que el client ha confirmat amb "clientAck": només conté
+ * les entitats que han canviat i les que s'han eliminat des d'aquell tick.
+ *
+ * Escalat: es poden arrencar diversos processos (port com a primer argument)
+ * darrere de com.gateway.Main. La passarel·la connecta els clients a "/room/<clau>"
+ * i fa servir "/_control" per copiar l'estat d'una sala d'un procés a un altre:
+ *  - Gateway -> Server: { "type": "roomSnapshot", "room": clau, "requestId": n }
+ *  - Gateway -> Server: { "type": "roomRestore", "room": clau, "requestId": n, "value": { ... } }
+ *  - Server -> Gateway: la mateixa petició amb "value" (roomSnapshot) o de tipus "roomRestored".
+ *
+ * Persistència: l'estat de les sales (objectes i si han començat) es desa a
+ * DATA_DIR/journal-<port> (veure WorldJournal) i es recupera en tornar a arrencar
+ * el procés amb el mateix port.
+ *
+ * Enregistrament: amb "--record=<fitxer>" el servidor desa tot el trànsit d'entrada,
+ * que com.server.Replay pot tornar a injectar en un servidor sense sockets.
+ *
+ * Ritme: cada sala fa SIMULATION_HZ passos de simulació i SEND_FPS enviaments de
+ * l'estat per segon ("--sim-hz=", "--send-hz="), i cada passada del seu bucle té un
+ * pressupost ("--tick-budget-ms=", per defecte un pas); veure GameLoop.
+ *
+ * Ritme per client: LinkMonitor mesura el RTT (ping/pong) i la cua de sortida de
+ * cada client i n'escull un divisor del ritme d'enviament (1, 2 o 3); la sala només
+ * envia l'estat a un client els ticks múltiples del seu divisor.
+ *
+ * Compressió: els clients que ho demanen negocien permessage-deflate (veure
+ * DeflateExtension). Els missatges de més de "--deflate=<bytes>" bytes (per defecte
+ * DeflateExtension.DEFAULT_THRESHOLD) es comprimeixen, un sol cop per broadcast;
+ * "--deflate=off" ho desactiva.
+ *
+ * Mètriques: cada procés exposa "/metrics" (format Prometheus) per HTTP al port
+ * del WebSocket + METRICS_PORT_OFFSET (veure Metrics).
  */
 public class Main extends WebSocketServer {
 
     /** Port per defecte on escolta el servidor. */
     public static final int DEFAULT_PORT = 3000;
 
+    /** Directori dels diaris de cada procés ("data/journal-<port>"). */
+    public static final String DATA_DIR = "data";
+
+    /** Distància entre el port del WebSocket i el de "/metrics" (3000 -> 9000). */
+    public static final int METRICS_PORT_OFFSET = 6000;
+
     /** Llista de noms disponibles per als clients connectats. */
     private static final List<String> PLAYER_NAMES = Arrays.asList(
         "Bulbasaur", "Charizard", "Blaziken", "Umbreon", "Mewtwo", "Pikachu", "Wartortle"
@@ -46,216 +116,477 @@ public class Main extends WebSocketServer {
         "GREEN", "ORANGE", "RED", "GRAY", "PURPLE", "YELLOW", "BLUE"
     );
 
-    /** Nombre de clients necessaris per iniciar el compte enrere. */
+    /** Nombre de clients de cada sala (i necessaris per iniciar el compte enrere). */
     private static final int REQUIRED_CLIENTS = 2;
 
     // Claus JSON
-    private static final String K_TYPE = "type";
-    private static final String K_VALUE = "value";
-    private static final String K_CLIENT_NAME = "clientName";
-    private static final String K_CLIENTS_LIST = "clientsList";             
-    private static final String K_OBJECTS_LIST = "objectsList"; 
+    static final String K_TYPE = "type";
+    static final String K_VALUE = "value";
+    static final String K_CLIENTS_LIST = "clientsList";
+    static final String K_OBJECTS_LIST = "objectsList";
+    static final String K_TICK = "tick";
+    static final String K_BASE_TICK = "baseTick";
+    static final String K_REMOVED_CLIENTS = "removedClients";
+    static final String K_REMOVED_OBJECTS = "removedObjects";
+    static final String K_STARTED = "started";
+    static final String K_ROOM = "room";
+    static final String K_REQUEST_ID = "requestId";
+    static final String K_X = "x";
+    static final String K_Y = "y";
+    static final String K_WIDTH = "width";
+    static final String K_HEIGHT = "height";
+    static final String K_NAME = "name";
+    static final String K_COLOR = "color";
+    static final String K_MOUSE_X = "mouseX";
+    static final String K_MOUSE_Y = "mouseY";
+    static final String K_ROW = "row";
+    static final String K_COL = "col";
+    static final String K_SEQ = "seq";
 
     // Tipus de missatge nous i (alguns) heretats
-    private static final String T_CLIENT_MOUSE_MOVING = "clientMouseMoving";  // client -> server
-    private static final String T_CLIENT_OBJECT_MOVING = "clientObjectMoving";// client -> server
-    private static final String T_SERVER_DATA = "serverData";                 // server -> clients
-    private static final String T_COUNTDOWN = "countdown";                    // server -> clients
-
-    /** Registre de clients i assignació de noms (pool integrat). */
+    static final String T_CLIENT_MOUSE_MOVING = "clientMouseMoving";  // client -> server
+    static final String T_CLIENT_OBJECT_MOVING = "clientObjectMoving";// client -> server
+    static final String T_CLIENT_ACK = "clientAck";                   // client -> server
+    static final String T_CLIENT_VIEWPORT = "clientViewport";         // client -> server
+    static final String T_CLIENT_NAME = "clientName";                 // server -> client
+    static final String T_SERVER_DATA = "serverData";                 // server -> clients
+    static final String T_COUNTDOWN = "countdown";                    // server -> clients
+    static final String T_ROOM_SNAPSHOT = "roomSnapshot";             // gateway <-> server
+    static final String T_ROOM_RESTORE = "roomRestore";               // gateway -> server
+    static final String T_ROOM_RESTORED = "roomRestored";             // server -> gateway
+    static final String T_UNKNOWN = "unknown";                        // (només mètriques)
+
+    /** Rutes del handshake: sala amb clau i canal de control de la passarel·la. */
+    private static final String ROOM_PATH = "/room/";
+    private static final String CONTROL_PATH = "/_control";
+
+    /** Registre de clients amb ids compactes i noms únics. */
     private final ClientRegistry clients;
 
-    /** Mapa d’estat per client (source of truth del servidor). Clau = name/id. */
-    private final Map<String, ClientData> clientsData = new HashMap<>();
+    /** Connexions que han negociat el protocol binari. */
+    private final Set<WebSocket> binaryClients = ConcurrentHashMap.newKeySet();
 
-    /** Mapa d'objectes seleccionables compartits. */
-    private final Map<String, GameObject> gameObjects = new HashMap<>();
+    /** Lectors reutilitzables per fil del WebSocket (rebre un moviment no reserva memòria). */
+    private static final ThreadLocal<InputScanner> JSON_INPUT = ThreadLocal.withInitial(InputScanner::new);
+    private static final ThreadLocal<BinaryCodec.Reader> BINARY_INPUT = ThreadLocal.withInitial(BinaryCodec.Reader::new);
 
-    private volatile boolean countdownRunning = false;
+    /** Connexions de control de la passarel·la (no són jugadors). */
+    private final Set<WebSocket> controlLinks = ConcurrentHashMap.newKeySet();
+
+    /** Passos de simulació per segon de cada sala (veure GameLoop). */
+    static final int SIMULATION_HZ = 60;
 
     /** Freqüència d’enviament de l’estat (frames per segon). */
-    private static final int SEND_FPS = 30;
-    private final ScheduledExecutorService ticker;
+    static final int SEND_FPS = 30;
+
+    /**
+     * Sales actives i pool de ticks. RoomManager rep el servidor, així que es crea a
+     * create(), un cop construït (abans d'arrencar, i per tant abans de cap altre fil).
+     */
+    private RoomManager rooms;
+
+    /** Comptadors exportats a "/metrics". */
+    final Metrics metrics = new Metrics();
+
+    /** RTT, cua de sortida i ritme d'enviament de cada client. */
+    final LinkMonitor links = new LinkMonitor();
+
+    /** Compressió de tots els clients amb permessage-deflate. */
+    private final DeflateExtension.Stats deflateStats;
+
+    /** Diari de l'estat de les sales (desactivat si no hi ha directori de dades). */
+    final WorldJournal journal;
+
+    /** Enregistrament del trànsit d'entrada (null si no s'enregistra; veure Replay). */
+    private TrafficRecorder recorder;
 
     /**
      * Crea un servidor WebSocket que escolta a l'adreça indicada.
      *
      * @param address adreça i port d'escolta del servidor
      */
-    public Main(InetSocketAddress address) {
-        super(address);
+    public static Main create(InetSocketAddress address) {
+        return create(address, null);
+    }
+
+    /**
+     * Crea un servidor que desa l'estat de les sales a 'dataDir' (veure WorldJournal).
+     *
+     * @param address adreça i port d'escolta del servidor
+     * @param dataDir directori del diari, o null per no desar res
+     */
+    public static Main create(InetSocketAddress address, Path dataDir) {
+        return create(address, dataDir, DeflateExtension.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param address adreça i port d'escolta del servidor
+     * @param dataDir directori del diari, o null per no desar res
+     * @param deflateThreshold mida mínima dels missatges que es comprimeixen, o -1 per
+     *                         no acceptar permessage-deflate
+     */
+    public static Main create(InetSocketAddress address, Path dataDir, int deflateThreshold) {
+        Main server = new Main(address, dataDir, deflateThreshold < 0 ? null : new DeflateExtension.Stats(), deflateThreshold);
+        server.rooms = new RoomManager(server, REQUIRED_CLIENTS, GameLoop.Timing.of(SIMULATION_HZ, SEND_FPS, 0));
+        return server;
+    }
+
+    private Main(InetSocketAddress address, Path dataDir, DeflateExtension.Stats deflateStats, int deflateThreshold) {
+        super(address, List.of(new Draft_6455(
+            deflateStats == null
+                ? Collections.emptyList()
+                : List.of(new DeflateExtension(deflateThreshold, deflateStats)),
+            List.of(new Protocol(BinaryCodec.PROTOCOL), new Protocol("")) // "" = JSON per defecte
+        )));
+        this.deflateStats = deflateStats;
         this.clients = new ClientRegistry(PLAYER_NAMES);
-        initializegameObjects();
-
-        ThreadFactory tf = r -> {
-            Thread t = new Thread(r, "ServerTicker");
-            t.setDaemon(true);
-            return t;
-        };
-        this.ticker = Executors.newSingleThreadScheduledExecutor(tf);
+        this.journal = new WorldJournal(dataDir);
+        setReuseAddr(true); // permet tornar a arrencar el procés al mateix port de seguida
+
+        metrics.gauge("ws_connections", "Clients connectats", () -> clients.size());
+        metrics.gauge("ws_binary_connections", "Clients amb el protocol binari", () -> binaryClients.size());
+        metrics.gauge("ws_control_links", "Connexions de control de la passarel·la", () -> controlLinks.size());
+        metrics.gauge("game_rooms", "Sales actives", () -> rooms.roomCount());
+        metrics.perClient("ws_buffered_bytes", "Bytes pendents d'enviar per connexió", clients, LinkMonitor::bufferedBytes);
+        metrics.perClient("ws_rtt_seconds", "RTT suavitzat de cada connexió (-1 sense mostres)", clients, c -> {
+            LinkMonitor.Link l = links.link(c);
+            return l == null || l.rttNanos() < 0 ? -1 : l.rttNanos() / 1e9;
+        });
+        metrics.perClient("ws_send_divisor", "Divisor del ritme d'enviament de l'estat de cada connexió", clients, links::divisor);
+        metrics.gauge("journal_tail_bytes", "Bytes del diari posteriors a l'últim checkpoint", () -> journal.tailBytes());
+        metrics.gauge("journal_checkpoint_seconds", "Durada de l'últim checkpoint", () -> journal.checkpointSeconds());
+        metrics.gauge("journal_recovery_seconds", "Durada de la recuperació en arrencar", () -> journal.recoverySeconds());
+        if (deflateStats != null) {
+            DeflateExtension.Stats d = deflateStats;
+            metrics.counter("ws_deflate_messages_total", "Missatges comprimits (un cop per broadcast)", () -> d.compressed.sum());
+            metrics.counter("ws_deflate_skipped_total", "Missatges per sota del llindar, sense comprimir", () -> d.skipped.sum());
+            metrics.counter("ws_deflate_reused_total", "Enviaments d'un frame ja comprimit per a una altra connexió", () -> d.reused.sum());
+            metrics.counter("ws_deflate_in_bytes_total", "Bytes abans de comprimir", () -> d.bytesIn.sum());
+            metrics.counter("ws_deflate_out_bytes_total", "Bytes després de comprimir", () -> d.bytesOut.sum());
+            metrics.counter("ws_deflate_seconds_total", "Temps de CPU comprimint", () -> d.nanos.sum() / 1e9);
+            metrics.gauge("ws_deflate_ratio", "Mida comprimida respecte l'original", d::ratio);
+        }
     }
 
     /**
-     * Inicialitza els objectes seleccionables predefinits.
+     * Enregistra tot el trànsit d'entrada al fitxer indicat. S'ha de cridar abans de start().
      */
-    private void initializegameObjects() {
-        String objId = "O0";
-        GameObject obj0 = new GameObject(objId, 300, 50, 4, 1);
-        gameObjects.put(objId, obj0);
-
-        objId = "O1";
-        GameObject obj1 = new GameObject(objId, 300, 100, 1, 3);
-        gameObjects.put(objId, obj1);
+    void record(Path file) throws IOException {
+        recorder = new TrafficRecorder(file);
     }
 
     /**
-     * Obté el color per un nom de client.
+     * Canvia els ritmes del bucle de les sales. S'ha de cridar abans de recover() i start().
      *
-     * @return color assignat
+     * @param simulationHz passos de simulació per segon
+     * @param sendHz enviaments de l'estat per segon
+     * @param budgetMillis durada màxima d'una passada del bucle, o 0 per un pas de simulació
      */
-    private synchronized String getColorForName(String name) {
-        int idx = PLAYER_NAMES.indexOf(name);
-        if (idx < 0) idx = 0; // fallback si el nom no està a la llista
-        return PLAYER_COLORS.get(idx % PLAYER_COLORS.size());
+    void setTiming(int simulationHz, int sendHz, double budgetMillis) {
+        rooms.setTiming(GameLoop.Timing.of(simulationHz, sendHz, budgetMillis));
     }
 
-    /** Envia un compte enrere (5..0) com a part del mateix STATE.
-     *  Evita comptes simultanis i es cancel·la si baixa el nombre de clients. */
-    private void sendCountdown() {
-        synchronized (this) {
-            if (countdownRunning) return;
-            if (clients.snapshot().size() != REQUIRED_CLIENTS) return;
-            countdownRunning = true;
+    /**
+     * Recupera les sales desades al diari i comença a fer-ne checkpoints.
+     * S'ha de cridar abans de start().
+     *
+     * Els checkpoints comencen encara que la recuperació falli: WorldJournal ja ha
+     * apartat els fitxers il·legibles i ha obert un segment nou.
+     */
+    void recover() throws IOException {
+        try {
+            for (WorldJournal.RoomState state : journal.recover()) rooms.recover(state);
+        } finally {
+            journal.start(rooms::all);
         }
+    }
 
-        new Thread(() -> {
-            try {
-                for (int i = 5; i >= 0; i--) {
-                    // Si durant el compte enrere ja no hi ha els clients requerits, cancel·la
-                    if (clients.snapshot().size() < REQUIRED_CLIENTS) {
-                        break;
-                    }
-
-                    sendCountdownToAll(i);
-                    if (i > 0) Thread.sleep(750); // ritme del compte enrere
-                }
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
-            } finally {
-                countdownRunning = false;
-            }
-        }, "CountdownThread").start();
+    /**
+     * Obté el color per a l'id d'un client (el mateix per a tots els noms amb la mateixa base).
+     *
+     * @return color assignat
+     */
+    private static String colorFor(int id) {
+        return PLAYER_COLORS.get(id % PLAYER_NAMES.size() % PLAYER_COLORS.size());
     }
 
     // ----------------- Helpers JSON -----------------
 
     /** Crea un objecte JSON amb el camp type inicialitzat. */
-    private static JSONObject msg(String type) {
+    static JSONObject msg(String type) {
         return new JSONObject().put(K_TYPE, type);
     }
 
-    /** Envia de forma segura un payload i, si el socket no està connectat, el neteja del registre. */
-    private void sendSafe(WebSocket to, String payload) {
+    /** Indica si la connexió ha negociat el protocol binari. */
+    boolean isBinary(WebSocket conn) {
+        return binaryClients.contains(conn);
+    }
+
+    /**
+     * Envia de forma segura un payload i, si el socket no està connectat, el neteja del registre.
+     *
+     * @param type tipus del missatge (per a les mètriques)
+     */
+    void sendSafe(String type, WebSocket to, String payload) {
         if (to == null) return;
         try {
             to.send(payload);
+            metrics.messageOut(type, 1, payload.length());
         } catch (WebsocketNotConnectedException e) {
-            String name = clients.cleanupDisconnected(to);
-            clientsData.remove(name);
-            System.out.println("Client desconnectat durant send: " + name);
+            metrics.sendFailure();
+            cleanupAfterFailedSend(to);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    /** Envia un missatge a tots els clients excepte l'emissor. */
-    private void broadcastExcept(WebSocket sender, String payload) {
-        for (Map.Entry<WebSocket, String> e : clients.snapshot().entrySet()) {
-            WebSocket conn = e.getKey();
-            if (!Objects.equals(conn, sender)) sendSafe(conn, payload);
+    /** Igual que sendSafe(String) però per a missatges binaris. */
+    void sendSafe(String type, WebSocket to, ByteBuffer payload) {
+        if (to == null) return;
+        try {
+            to.send(payload.duplicate());
+            metrics.messageOut(type, 1, payload.remaining());
+        } catch (WebsocketNotConnectedException e) {
+            metrics.sendFailure();
+            cleanupAfterFailedSend(to);
+        } catch (Exception e) {
+            e.printStackTrace();
         }
     }
 
-    private void broadcastStatus() {
-
-        JSONArray arrClients = new JSONArray();
-        for (ClientData c : clientsData.values()) {
-            arrClients.put(c.toJSON());
-        }
+    /** Envia el missatge en el format de la connexió (JSON o binari). */
+    void sendSafe(String type, WebSocket to, String json, ByteBuffer binary) {
+        if (isBinary(to)) sendSafe(type, to, binary);
+        else sendSafe(type, to, json);
+    }
 
-        JSONArray arrObjects = new JSONArray();
-        for (GameObject obj : gameObjects.values()) {
-            arrObjects.put(obj.toJSON());
-        }
+    /**
+     * broadcast() del WebSocketServer comptat a les mètriques. El missatge es serialitza i
+     * es divideix en frames un sol cop, però la càrrega es copia al buffer de sortida de
+     * cada connexió.
+     *
+     * broadcast() s'empassa WebsocketNotConnectedException, així que les connexions ja
+     * tancades se separen abans (veure openOnly) i compten com a enviaments fallits.
+     */
+    void broadcast(String type, String payload, Collection<WebSocket> to) {
+        Collection<WebSocket> open = openOnly(to);
+        if (open.isEmpty()) return;
+        broadcast(payload, open);
+        metrics.messageOut(type, open.size(), payload.length());
+    }
 
-        JSONObject rst = msg(T_SERVER_DATA)
-                        .put(K_CLIENTS_LIST, arrClients)
-                        .put(K_OBJECTS_LIST, arrObjects);
+    /** Igual que broadcast(String, String, Collection) però per a missatges binaris. */
+    void broadcast(String type, ByteBuffer payload, Collection<WebSocket> to) {
+        Collection<WebSocket> open = openOnly(to);
+        if (open.isEmpty()) return;
+        broadcast(payload, open);
+        metrics.messageOut(type, open.size(), payload.remaining());
+    }
 
-        for (Map.Entry<WebSocket, String> e : clients.snapshot().entrySet()) {
-            WebSocket conn = e.getKey();
-            String name = clients.nameBySocket(conn);
-            rst.put(K_CLIENT_NAME, name);
-            sendSafe(conn, rst.toString());
+    /**
+     * Connexions obertes de 'to'. Les tancades es compten com a enviaments fallits i es
+     * netegen, com fa sendSafe(). Si totes són obertes (el cas habitual) es retorna la
+     * mateixa col·lecció, sense copiar-la.
+     */
+    private Collection<WebSocket> openOnly(Collection<WebSocket> to) {
+        int closed = 0;
+        for (WebSocket conn : to) {
+            if (!conn.isOpen()) closed++;
         }
+        if (closed == 0) return to;
+        List<WebSocket> open = new ArrayList<>(to.size() - closed);
+        for (WebSocket conn : to) {
+            if (conn.isOpen()) {
+                open.add(conn);
+            } else {
+                metrics.sendFailure();
+                cleanupAfterFailedSend(conn);
+            }
+        }
+        return open;
     }
 
-    /** Envia a tots els clients el compte enrere. */
-    private void sendCountdownToAll(int n) {
-        JSONObject rst = msg(T_COUNTDOWN).put(K_VALUE, n);
-        broadcastExcept(null, rst.toString());
+    /** Neteja una connexió caiguda; es pot cridar des de qualsevol fil. */
+    private void cleanupAfterFailedSend(WebSocket to) {
+        String name = clients.nameBySocket(to);
+        if (name == null) return; // ja netejat
+        rooms.leave(to);
+        clients.cleanupDisconnected(to);
+        links.remove(to);
+        metrics.cleanup();
+        binaryClients.remove(to);
+        System.out.println("Client desconnectat durant send: " + name);
     }
 
     // ----------------- WebSocketServer overrides -----------------
 
-    /** Assigna un nom i color al client i envia l’STATE complet. */
+    /** Assigna un nom, un color i una sala al client i li comunica el seu nom. */
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
-        String name = clients.add(conn);
-        String color = getColorForName(name);
+        String path = handshake.getResourceDescriptor();
+        boolean binary = conn.getDraft() instanceof Draft_6455 draft && draft.getProtocol() != null
+                && BinaryCodec.PROTOCOL.equals(draft.getProtocol().getProvidedProtocol());
+        if (recorder != null) recorder.open(conn, path, binary);
+
+        if (CONTROL_PATH.equals(path)) {
+            controlLinks.add(conn);
+            System.out.println("Passarel·la connectada: " + conn.getRemoteSocketAddress());
+            return;
+        }
+        String roomKey = path != null && path.startsWith(ROOM_PATH) && path.length() > ROOM_PATH.length()
+                ? path.substring(ROOM_PATH.length())
+                : null;
+
+        // El protocol es registra abans que el client perquè el tick no li enviï JSON
+        if (binary) binaryClients.add(conn);
 
-        clientsData.put(name, new ClientData(name, color));
+        ClientRegistry.Connection client = clients.add(conn);
+        links.add(conn);
+        String name = client.name();
+        String color = colorFor(client.id());
 
-        System.out.println("WebSocket client connected: " + name + " (" + color + ")");
-        sendCountdown();
+        Room room = rooms.join(conn, name, color, roomKey);
+        sendSafe(T_CLIENT_NAME, conn, msg(T_CLIENT_NAME).put(K_VALUE, name).toString(), BinaryCodec.encodeClientName(name));
+
+        System.out.println("WebSocket client connected: " + name + " (" + color + ") -> sala " + room.id);
     }
 
-    /** Elimina el client del registre i envia l’STATE complet. */
+    /** Treu el client de la seva sala i del registre. */
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        if (recorder != null) recorder.close(conn);
+        if (controlLinks.remove(conn)) return;
+
+        // La sortida de la sala s'encua abans d'alliberar el nom al registre,
+        // perquè un client nou amb el mateix nom s'apliqui després
+        rooms.leave(conn);
         String name = clients.remove(conn);
-        clientsData.remove(name);
+        links.remove(conn);
+        binaryClients.remove(conn);
         System.out.println("WebSocket client disconnected: " + name);
     }
 
     /** Processa els missatges rebuts. */
     @Override
     public void onMessage(WebSocket conn, String message) {
-        JSONObject obj;
-        try {
-            obj = new JSONObject(message);
-        } catch (Exception ex) {
-            return; // JSON invàlid
+        if (recorder != null) recorder.text(conn, message);
+        if (controlLinks.contains(conn)) {
+            try {
+                JSONObject obj = new JSONObject(message);
+                metrics.messageIn(obj.optString(K_TYPE, T_UNKNOWN), message.length());
+                onControlMessage(conn, obj);
+            } catch (Exception ex) {
+                // JSON invàlid
+            }
+            return;
         }
 
-        String type = obj.optString(K_TYPE, "");
-        switch (type) {
-            case T_CLIENT_MOUSE_MOVING -> {
-                String clientName = clients.nameBySocket(conn);
-                clientsData.put(clientName, ClientData.fromJSON(obj.getJSONObject(K_VALUE))); 
+        Room room = rooms.roomOf(conn);
+        if (room == null) return;
+
+        // Lectura en streaming: només el type i els camps numèrics, sense arbre JSON
+        InputScanner in = JSON_INPUT.get();
+        if (!in.parse(message)) return; // JSON invàlid
+
+        String type = T_UNKNOWN;
+        if (in.typeIs(T_CLIENT_MOUSE_MOVING)) {
+            type = T_CLIENT_MOUSE_MOVING;
+            room.mouseMoving(conn, in.mouseX, in.mouseY, in.row, in.col, in.seq);
+        } else if (in.typeIs(T_CLIENT_OBJECT_MOVING)) {
+            type = T_CLIENT_OBJECT_MOVING;
+            ObjectSlot slot = room.objectSlot(in);
+            if (slot != null) {
+                room.objectMoving(slot, in.x, in.y, in.cols, in.rows);
+                room.inputSeq(conn, in.seq);
+            } else {
+                room.objectMoving(conn, new GameObject(in.id(), in.x, in.y, in.cols, in.rows), in.seq);
             }
+        } else if (in.typeIs(T_CLIENT_ACK)) {
+            type = T_CLIENT_ACK;
+            if (in.hasScalar) room.ack(conn, in.scalar);
+        } else if (in.typeIs(T_CLIENT_VIEWPORT)) {
+            type = T_CLIENT_VIEWPORT;
+            room.viewport(conn, in.x, in.y, in.width, in.height);
+        }
+        // Ignora altres tipus
+        metrics.messageIn(type, message.length());
+    }
 
-            case T_CLIENT_OBJECT_MOVING -> {
-                GameObject objData = GameObject.fromJSON(obj.getJSONObject(K_VALUE));
-                gameObjects.put(objData.id, objData);
+    /** Peticions de la passarel·la per traspassar sales entre processos. */
+    private void onControlMessage(WebSocket conn, JSONObject obj) {
+        String roomKey = obj.optString(K_ROOM, null);
+        if (roomKey == null) return;
+        long requestId = obj.optLong(K_REQUEST_ID, -1);
+
+        switch (obj.optString(K_TYPE, "")) {
+            case T_ROOM_SNAPSHOT -> rooms.snapshot(roomKey, snapshot -> sendSafe(T_ROOM_SNAPSHOT, conn, msg(T_ROOM_SNAPSHOT)
+                    .put(K_ROOM, roomKey)
+                    .put(K_REQUEST_ID, requestId)
+                    .put(K_VALUE, snapshot == null ? JSONObject.NULL : snapshot)
+                    .toString()));
+            case T_ROOM_RESTORE -> {
+                JSONObject snapshot = obj.optJSONObject(K_VALUE);
+                if (snapshot != null) rooms.restore(roomKey, snapshot);
+                sendSafe(T_ROOM_RESTORED, conn, msg(T_ROOM_RESTORED)
+                        .put(K_ROOM, roomKey)
+                        .put(K_REQUEST_ID, requestId)
+                        .toString());
             }
-
             default -> {
                 // Ignora altres tipus
             }
         }
     }
 
+    /** Processa els missatges binaris (clients amb BinaryCodec.PROTOCOL). */
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        if (recorder != null) recorder.binary(conn, message);
+        Room room = rooms.roomOf(conn);
+        if (room == null) return;
+
+        int bytes = message.remaining();
+        String type = T_UNKNOWN;
+        try {
+            BinaryCodec.Reader in = BINARY_INPUT.get().reset(message);
+            switch (in.type()) {
+                case BinaryCodec.T_CLIENT_MOUSE_MOVING -> {
+                    type = T_CLIENT_MOUSE_MOVING;
+                    in.skipString(); // nom i color: els del servidor
+                    in.getByte();
+                    int mouseX = in.getShort(), mouseY = in.getShort(), row = in.getShort(), col = in.getShort();
+                    room.mouseMoving(conn, mouseX, mouseY, row, col, in.getVarLong());
+                }
+                case BinaryCodec.T_CLIENT_OBJECT_MOVING -> {
+                    type = T_CLIENT_OBJECT_MOVING;
+                    ObjectSlot slot = room.objectSlot(in);
+                    if (slot == null) {
+                        GameObject go = in.getObject();
+                        room.objectMoving(conn, go, in.getVarLong());
+                    } else {
+                        in.skipString();
+                        room.objectMoving(slot, in.getShort(), in.getShort(), in.getUShort(), in.getUShort());
+                        room.inputSeq(conn, in.getVarLong());
+                    }
+                }
+                case BinaryCodec.T_CLIENT_ACK -> {
+                    type = T_CLIENT_ACK;
+                    room.ack(conn, in.getVarLong());
+                }
+                case BinaryCodec.T_CLIENT_VIEWPORT -> {
+                    type = T_CLIENT_VIEWPORT;
+                    room.viewport(conn, in.getShort(), in.getShort(), in.getUShort(), in.getUShort());
+                }
+                default -> {
+                    // Ignora altres tipus
+                }
+            }
+        } catch (RuntimeException ex) {
+            // Missatge binari invàlid
+        }
+        metrics.messageIn(type, bytes);
+    }
+
     /** Log d'error global o de socket concret. */
     @Override
     public void onError(WebSocket conn, Exception ex) {
@@ -267,7 +598,13 @@ public class Main extends WebSocketServer {
     public void onStart() {
         System.out.println("WebSocket server started on port: " + getPort());
         setConnectionLostTimeout(100);
-        startTicker();
+        links.start();
+    }
+
+    /** Pong d'un ping de LinkMonitor (o de connectionLostTimeout, que s'ignora). */
+    @Override
+    public void onWebsocketPong(WebSocket conn, Framedata f) {
+        links.pong(conn, f);
     }
 
     // ----------------- Lifecycle util -----------------
@@ -277,7 +614,11 @@ public class Main extends WebSocketServer {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Aturant servidor (shutdown hook)...");
             try {
-                server.stopTicker();      // <- atura el bucle periòdic
+                server.rooms.shutdown();  // <- atura els ticks de les sales
+                server.journal.close();
+                server.links.stop();
+                if (server.recorder != null) server.recorder.close();
+                server.metrics.stop();
                 server.stop(1000);
             } catch (InterruptedException e) {
                 e.printStackTrace();
@@ -297,39 +638,66 @@ public class Main extends WebSocketServer {
         }
     }
 
-
-    // ----------------- Ticker util -----------------
-
-    private void startTicker() {
-        long periodMs = Math.max(1, 1000 / SEND_FPS);
-        ticker.scheduleAtFixedRate(() -> {
+    /**
+     * Port d'escolta: el primer argument numèric, o DEFAULT_PORT.
+     * (run.sh passa la plataforma de JavaFX com a primer argument, que s'ignora.)
+     */
+    private static int parsePort(String[] args) {
+        for (String arg : args) {
             try {
-                // Opcional: si no hi ha clients, evita enviar
-                if (!clients.snapshot().isEmpty()) {
-                    broadcastStatus();
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+                return Integer.parseInt(arg);
+            } catch (NumberFormatException ignored) {
+                // no és un port
             }
-        }, 0, periodMs, TimeUnit.MILLISECONDS);
+        }
+        return DEFAULT_PORT;
     }
 
-    private void stopTicker() {
-        try {
-            ticker.shutdownNow();
-            ticker.awaitTermination(1, TimeUnit.SECONDS);
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
+    /** Valor d'una opció "--nom=valor" dels arguments, o null. */
+    private static String option(String[] args, String prefix) {
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) return arg.substring(prefix.length());
         }
+        return null;
     }
 
     /** Punt d'entrada. */
     public static void main(String[] args) {
-        Main server = new Main(new InetSocketAddress(DEFAULT_PORT));
+        int port = parsePort(args);
+        String deflate = option(args, "--deflate=");
+        int deflateThreshold = deflate == null ? DeflateExtension.DEFAULT_THRESHOLD
+                : "off".equals(deflate) ? -1 : Integer.parseInt(deflate);
+        Main server = Main.create(new InetSocketAddress(port), Paths.get(DATA_DIR, "journal-" + port), deflateThreshold);
+        String simHz = option(args, "--sim-hz=");
+        String sendHz = option(args, "--send-hz=");
+        String budget = option(args, "--tick-budget-ms=");
+        server.setTiming(simHz == null ? SIMULATION_HZ : Integer.parseInt(simHz),
+                sendHz == null ? SEND_FPS : Integer.parseInt(sendHz),
+                budget == null ? 0 : Double.parseDouble(budget));
+        try {
+            server.recover();
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("No s'ha pogut recuperar el diari: " + e.getMessage());
+        }
+        String recordFile = option(args, "--record=");
+        if (recordFile != null) {
+            try {
+                server.record(Paths.get(recordFile));
+                System.out.println("Enregistrant el trànsit a " + recordFile);
+            } catch (IOException e) {
+                System.err.println("No s'ha pogut obrir " + recordFile + ": " + e.getMessage());
+            }
+        }
         server.start();
+        try {
+            server.metrics.start(port + METRICS_PORT_OFFSET);
+            System.out.println("Metrics on http://localhost:" + (port + METRICS_PORT_OFFSET) + "/metrics");
+        } catch (IOException e) {
+            System.err.println("No s'ha pogut obrir el port de mètriques: " + e.getMessage());
+        }
         registerShutdownHook(server);
 
-        System.out.println("Server running on port " + DEFAULT_PORT + ". Press Ctrl+C to stop it.");
+        System.out.println("Server running on port " + port + ". Press Ctrl+C to stop it.");
         awaitForever();
     }
 }
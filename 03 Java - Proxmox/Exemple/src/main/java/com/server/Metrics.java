@@ -0,0 +1,272 @@
+package com.server;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+import java.util.function.ToDoubleFunction;
+
+import org.java_websocket.WebSocket;
+
+/**
+ * Comptadors del servidor, exportats en format de text de Prometheus a "/metrics".
+ *
+ * Els comptadors són LongAdder: incrementar-los des de molts fils alhora no
+ * contén ni reserva memòria. Els valors instantanis (connexions, bytes pendents
+ * d'enviar...) es calculen en el moment de la consulta amb els gauges registrats.
+ *
+ * El servidor HTTP és el de la JDK (com.sun.net.httpserver), en un port a part.
+ */
+final class Metrics {
+
+    /** Límits superiors (en segons) dels histogrames de temps. */
+    private static final double[] TIME_BUCKETS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1
+    };
+
+    private final Map<String, LongAdder> messagesIn = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> messagesOut = new ConcurrentHashMap<>();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    private final LongAdder cleanups = new LongAdder();
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder stepsDropped = new LongAdder();
+    private final LongAdder sendsSkipped = new LongAdder();
+    private final LongAdder tickOverruns = new LongAdder();
+
+    /** Durada de cada passada del bucle d'una sala (passos de simulació i enviament). */
+    final Histogram tickSeconds = new Histogram(TIME_BUCKETS);
+
+    /** Temps de construir i enviar l'estat d'un tick a tota la sala. */
+    final Histogram fanoutSeconds = new Histogram(TIME_BUCKETS);
+
+    private final List<Consumer<StringBuilder>> gauges = new ArrayList<>();
+
+    private HttpServer http;
+
+    // ----------------- Registre -----------------
+
+    /**
+     * Compta un missatge rebut.
+     *
+     * @param type tipus del missatge
+     * @param bytes mida de la càrrega (caràcters per al JSON, que és ASCII)
+     */
+    void messageIn(String type, long bytes) {
+        counter(messagesIn, type).increment();
+        bytesIn.add(bytes);
+    }
+
+    /**
+     * Compta un missatge enviat a 'recipients' connexions.
+     *
+     * @param type tipus del missatge
+     * @param recipients nombre de destinataris
+     * @param bytes mida de la càrrega per destinatari
+     */
+    void messageOut(String type, int recipients, long bytes) {
+        counter(messagesOut, type).add(recipients);
+        bytesOut.add(bytes * recipients);
+    }
+
+    void sendFailure() {
+        sendFailures.increment();
+    }
+
+    void cleanup() {
+        cleanups.increment();
+    }
+
+    void steps(long n) {
+        steps.add(n);
+    }
+
+    /** Passos de simulació descartats per superar el límit de recuperació (GameLoop). */
+    void stepsDropped(long n) {
+        stepsDropped.add(n);
+    }
+
+    /** Enviaments de l'estat que no s'han fet perquè la sala anava endarrerida. */
+    void sendsSkipped(long n) {
+        sendsSkipped.add(n);
+    }
+
+    /** Passada del bucle d'una sala més llarga que el seu pressupost. */
+    void tickOverrun() {
+        tickOverruns.increment();
+    }
+
+    /** Registra un valor instantani sense etiquetes. */
+    void gauge(String name, String help, DoubleSupplier value) {
+        gauges.add(sb -> {
+            header(sb, name, help, "gauge");
+            sample(sb, name, "", value.getAsDouble());
+        });
+    }
+
+    /** Registra un comptador que es llegeix d'un altre lloc (p. ex. DeflateExtension.Stats). */
+    void counter(String name, String help, DoubleSupplier value) {
+        gauges.add(sb -> {
+            header(sb, name, help, "counter");
+            sample(sb, name, "", value.getAsDouble());
+        });
+    }
+
+    /**
+     * Registra un valor per connexió, amb el nom del client com a etiqueta (p. ex. els
+     * bytes pendents d'enviar o el RTT).
+     */
+    void perClient(String name, String help, ClientRegistry clients, ToDoubleFunction<WebSocket> value) {
+        gauges.add(sb -> {
+            header(sb, name, help, "gauge");
+            for (ClientRegistry.Connection c : clients.connections()) {
+                sample(sb, name, "{client=\"" + c.name() + "\"}", value.applyAsDouble(c.socket()));
+            }
+        });
+    }
+
+    private static LongAdder counter(Map<String, LongAdder> map, String key) {
+        LongAdder c = map.get(key);
+        return c != null ? c : map.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+    // ----------------- Exportació -----------------
+
+    /** Arrenca l'endpoint HTTP "/metrics" al port indicat. */
+    void start(int port) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start();
+    }
+
+    void stop() {
+        if (http != null) http.stop(0);
+    }
+
+    /** Tots els valors en format de text de Prometheus. */
+    String render() {
+        StringBuilder sb = new StringBuilder(2048);
+        labeled(sb, "ws_messages_in_total", "Missatges rebuts per tipus", messagesIn);
+        labeled(sb, "ws_messages_out_total", "Missatges enviats per tipus (un per destinatari)", messagesOut);
+        counter(sb, "ws_bytes_in_total", "Bytes de càrrega rebuts", bytesIn);
+        counter(sb, "ws_bytes_out_total", "Bytes de càrrega enviats", bytesOut);
+        counter(sb, "ws_send_failures_total", "Enviaments a connexions ja tancades", sendFailures);
+        counter(sb, "ws_cleanup_disconnected_total", "Clients netejats després d'un enviament fallit", cleanups);
+        counter(sb, "game_steps_total", "Passos de simulació de totes les sales", steps);
+        counter(sb, "game_steps_dropped_total", "Passos de simulació descartats per retard", stepsDropped);
+        counter(sb, "game_sends_skipped_total", "Enviaments de l'estat saltats per retard", sendsSkipped);
+        counter(sb, "game_tick_overruns_total", "Passades del bucle d'una sala més llargues que el pressupost", tickOverruns);
+        tickSeconds.render(sb, "game_tick_seconds", "Durada d'una passada del bucle d'una sala");
+        fanoutSeconds.render(sb, "game_broadcast_fanout_seconds", "Temps d'enviar l'estat d'un tick a la sala");
+        for (Consumer<StringBuilder> g : gauges) g.accept(sb);
+        return sb.toString();
+    }
+
+    private static void labeled(StringBuilder sb, String name, String help, Map<String, LongAdder> values) {
+        header(sb, name, help, "counter");
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(values).entrySet()) {
+            sample(sb, name, "{type=\"" + e.getKey() + "\"}", e.getValue().sum());
+        }
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, LongAdder value) {
+        header(sb, name, help, "counter");
+        sample(sb, name, "", value.sum());
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name).append(labels).append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) sb.append((long) value);
+        else sb.append(value);
+        sb.append('\n');
+    }
+
+    /** Histograma de temps amb límits fixos (format "le" acumulat de Prometheus). */
+    static final class Histogram {
+        private final double[] bounds;
+        private final long[] boundsNanos;
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram(double[] boundsSeconds) {
+            this.bounds = boundsSeconds;
+            this.boundsNanos = new long[bounds.length];
+            this.buckets = new LongAdder[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                boundsNanos[i] = (long) (bounds[i] * 1e9);
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void observeNanos(long nanos) {
+            for (int i = 0; i < boundsNanos.length; i++) {
+                if (nanos <= boundsNanos[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sumNanos.add(nanos);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        double meanSeconds() {
+            long n = count.sum();
+            return n == 0 ? 0 : sumNanos.sum() / 1e9 / n;
+        }
+
+        /**
+         * Límit superior del bucket on cau el percentil 'p' (p. ex. 0.99), o infinit si
+         * és per sobre de l'últim límit.
+         */
+        double percentileSeconds(double p) {
+            long target = (long) Math.ceil(p * count.sum());
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets[i].sum();
+                if (cumulative >= target) return bounds[i];
+            }
+            return Double.POSITIVE_INFINITY;
+        }
+
+        void render(StringBuilder sb, String name, String help) {
+            header(sb, name, help, "histogram");
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets[i].sum();
+                sample(sb, name + "_bucket", "{le=\"" + BigDecimal.valueOf(bounds[i]).toPlainString() + "\"}", cumulative);
+            }
+            sample(sb, name + "_bucket", "{le=\"+Inf\"}", count.sum());
+            sample(sb, name + "_sum", "", sumNanos.sum() / 1e9);
+            sample(sb, name + "_count", "", count.sum());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.server;
+
+/**
+ * Última posició pendent d'un objecte, entre els fils del WebSocket i el tick.
+ *
+ * N'hi ha un per objecte de la sala i es reutilitza per a tots els moviments
+ * (veure InputSlot): l'últim moviment rebut abans del tick és el que s'aplica. La
+ * sala només repassa els slots que han rebut algun moviment des de l'últim tick.
+ */
+final class ObjectSlot {
+
+    /** Id de l'objecte. */
+    final String id;
+
+    private int x, y, cols, rows;
+    private boolean dirty = false;
+
+    ObjectSlot(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Desa un moviment de l'objecte.
+     *
+     * @return true si substitueix un moviment que encara no s'havia aplicat
+     */
+    synchronized boolean offer(int x, int y, int cols, int rows) {
+        boolean replaced = dirty;
+        this.x = x;
+        this.y = y;
+        this.cols = cols;
+        this.rows = rows;
+        dirty = true;
+        return replaced;
+    }
+
+    /**
+     * Copia el moviment pendent (si n'hi ha) a l'objecte del món. Només des del fil del tick.
+     *
+     * @param index posició de l'objecte a ObjectStore, o -1 si ja no existeix (el moviment es descarta)
+     * @return true si l'objecte ha canviat
+     */
+    synchronized boolean takeInto(ObjectStore objects, int index, long tick) {
+        if (!dirty) return false;
+        dirty = false;
+        return index >= 0 && objects.move(index, x, y, cols, rows, tick);
+    }
+}
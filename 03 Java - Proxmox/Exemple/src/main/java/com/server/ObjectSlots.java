@@ -0,0 +1,82 @@
+package com.server;
+
+import com.shared.BinaryCodec;
+
+/**
+ * Slots dels objectes d'una sala, indexats per id perquè els fils del WebSocket els
+ * trobin sense crear cap String.
+ *
+ * És una taula de dispersió oberta (sondeig lineal) pel hash de l'id, que el lector
+ * calcula directament sobre el text o els bytes del missatge. No es modifica mai: la
+ * sala en crea una de nova quan canvia el conjunt d'objectes i la publica en un camp
+ * volatile, com l'array de connexions de ClientRegistry.
+ */
+final class ObjectSlots {
+
+    static final ObjectSlots EMPTY = new ObjectSlots(0);
+
+    private final ObjectSlot[] table;
+    private final int[] hashes;
+    private final int mask;
+
+    private ObjectSlots(int count) {
+        int capacity = Integer.highestOneBit(Math.max(1, count) * 2 - 1) * 2; // ocupació <= 50%
+        table = new ObjectSlot[capacity];
+        hashes = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Taula amb un slot per objecte del món. Els objectes que ja hi eren conserven el
+     * seu slot (i el moviment pendent que hi pugui haver).
+     */
+    static ObjectSlots of(ObjectStore objects, ObjectSlots previous) {
+        ObjectSlots rst = new ObjectSlots(objects.size());
+        for (int i = 0, n = objects.size(); i < n; i++) {
+            String id = objects.id(i);
+            ObjectSlot slot = previous.find(id);
+            rst.insert(slot != null ? slot : new ObjectSlot(id));
+        }
+        return rst;
+    }
+
+    private void insert(ObjectSlot slot) {
+        int h = slot.id.hashCode();
+        int i = spread(h) & mask;
+        while (table[i] != null) i = (i + 1) & mask;
+        table[i] = slot;
+        hashes[i] = h;
+    }
+
+    /** Slot de l'id, o null si no n'hi ha. */
+    ObjectSlot find(String id) {
+        int h = id.hashCode();
+        for (int i = spread(h) & mask; table[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] == h && table[i].id.equals(id)) return table[i];
+        }
+        return null;
+    }
+
+    /** Slot de l'"id" del missatge JSON, o null si no n'hi ha. */
+    ObjectSlot find(InputScanner in) {
+        int h = in.idHash();
+        for (int i = spread(h) & mask; table[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] == h && in.idIs(table[i].id)) return table[i];
+        }
+        return null;
+    }
+
+    /** Slot de l'id que és la següent cadena del missatge binari, o null si no n'hi ha. */
+    ObjectSlot find(BinaryCodec.Reader in) {
+        int h = in.nextStringHash();
+        for (int i = spread(h) & mask; table[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] == h && in.nextStringIs(table[i].id)) return table[i];
+        }
+        return null;
+    }
+
+    /** Barreja els bits alts (els ids com "O123" només difereixen als últims caràcters). */
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
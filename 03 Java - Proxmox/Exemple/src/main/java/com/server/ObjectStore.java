@@ -0,0 +1,228 @@
+package com.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.shared.BinaryCodec;
+import com.shared.GameObject;
+
+/**
+ * Objectes del món d'una sala en arrays paral·lels de primitius (un array per camp),
+ * com ClientTable, amb un mapa d'id a posició.
+ *
+ * Les posicions 0..size()-1 sempre estan ocupades: quan s'elimina un objecte, l'últim
+ * passa al seu lloc. Cada objecte guarda l'últim tick en què ha canviat (la seva marca
+ * de brut respecte qualsevol tick base), i el tick els recorre amb un bucle sobre
+ * enters, sense cap GameObject ni cap valor encapsulat. L'id de cada objecte es
+ * guarda ja codificat en UTF-8 per escriure'l als frames binaris sense convertir-lo.
+ *
+ * Les eliminacions es recorden durant la finestra de deltes, com a ChangeTracker.
+ *
+ * Només la fa servir el fil del tick de la sala.
+ */
+final class ObjectStore {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private byte[][] idBytes = new byte[INITIAL_CAPACITY][];
+    private int[] x = new int[INITIAL_CAPACITY];
+    private int[] y = new int[INITIAL_CAPACITY];
+    private int[] cols = new int[INITIAL_CAPACITY];
+    private int[] rows = new int[INITIAL_CAPACITY];
+
+    /** Últim tick en què ha canviat cada objecte (per calcular deltes). */
+    private long[] changedAt = new long[INITIAL_CAPACITY];
+
+    private int size;
+
+    /** Posició de cada id. */
+    private final Map<String, Integer> indexById = new HashMap<>();
+
+    /** Tick en què s'ha eliminat cada id (dins la finestra d'història). */
+    private final Map<String, Long> removedAt = new HashMap<>();
+
+    int size() {
+        return size;
+    }
+
+    /** Posició de l'objecte, o -1 si no existeix. */
+    int indexOf(String id) {
+        Integer i = indexById.get(id);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Crea l'objecte o el mou si ja existeix.
+     *
+     * @param tick tick del canvi
+     * @return true si l'objecte és nou (cal refer els slots de la sala)
+     */
+    boolean put(String id, int x, int y, int cols, int rows, long tick) {
+        int i = indexOf(id);
+        if (i >= 0) {
+            move(i, x, y, cols, rows, tick);
+            return false;
+        }
+        if (size == ids.length) grow(size * 2);
+        i = size++;
+        ids[i] = id;
+        idBytes[i] = id.getBytes(StandardCharsets.UTF_8);
+        set(i, x, y, cols, rows);
+        changedAt[i] = tick;
+        indexById.put(id, i);
+        removedAt.remove(id);
+        return true;
+    }
+
+    /**
+     * Afegeix (o mou) molts objectes alhora, reservant l'espai un sol cop.
+     *
+     * @return quants objectes són nous
+     */
+    int putAll(List<GameObject> objects, long tick) {
+        if (size + objects.size() > ids.length) grow(Math.max(ids.length * 2, size + objects.size()));
+        int added = 0;
+        for (GameObject obj : objects) {
+            if (obj.id != null && put(obj.id, obj.x, obj.y, obj.col, obj.row, tick)) added++;
+        }
+        return added;
+    }
+
+    /**
+     * Mou un objecte existent.
+     *
+     * @return true si la posició o la mida han canviat (i s'ha marcat amb el tick)
+     */
+    boolean move(int i, int x, int y, int cols, int rows, long tick) {
+        if (this.x[i] == x && this.y[i] == y && this.cols[i] == cols && this.rows[i] == rows) return false;
+        set(i, x, y, cols, rows);
+        changedAt[i] = tick;
+        return true;
+    }
+
+    /**
+     * Elimina un objecte; l'últim ocupa el seu lloc.
+     *
+     * @return true si existia
+     */
+    boolean remove(String id, long tick) {
+        Integer removed = indexById.remove(id);
+        if (removed == null) return false;
+        int i = removed;
+        int last = --size;
+        if (i != last) {
+            ids[i] = ids[last];
+            idBytes[i] = idBytes[last];
+            set(i, x[last], y[last], cols[last], rows[last]);
+            changedAt[i] = changedAt[last];
+            indexById.put(ids[i], i);
+        }
+        ids[last] = null;
+        idBytes[last] = null;
+        removedAt.put(id, tick);
+        return true;
+    }
+
+    /** Elimina tots els objectes (queden com a eliminats al tick indicat). */
+    void clear(long tick) {
+        for (int i = 0; i < size; i++) removedAt.put(ids[i], tick);
+        Arrays.fill(ids, 0, size, null);
+        Arrays.fill(idBytes, 0, size, null);
+        indexById.clear();
+        size = 0;
+    }
+
+    String id(int i) {
+        return ids[i];
+    }
+
+    /** Id en UTF-8 (el mateix array cada cop; no s'ha de modificar). */
+    byte[] idBytes(int i) {
+        return idBytes[i];
+    }
+
+    int x(int i) {
+        return x[i];
+    }
+
+    int y(int i) {
+        return y[i];
+    }
+
+    int cols(int i) {
+        return cols[i];
+    }
+
+    int rows(int i) {
+        return rows[i];
+    }
+
+    /** Indica si l'objecte ha canviat després del tick base. */
+    boolean changedSince(int i, long baseTick) {
+        return changedAt[i] > baseTick;
+    }
+
+    /**
+     * Omple 'out' amb les posicions dels objectes canviats després de la base
+     * (tots si és KEYFRAME).
+     *
+     * @return quantes posicions s'han escrit
+     */
+    int changedSince(long baseTick, int[] out) {
+        if (baseTick == Room.KEYFRAME) {
+            for (int i = 0; i < size; i++) out[i] = i;
+            return size;
+        }
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (changedAt[i] > baseTick) out[n++] = i;
+        }
+        return n;
+    }
+
+    /** Ids eliminats després del tick base. */
+    List<String> removedSince(long baseTick) {
+        List<String> rst = new ArrayList<>();
+        for (Map.Entry<String, Long> e : removedAt.entrySet()) {
+            if (e.getValue() > baseTick) rst.add(e.getKey());
+        }
+        return rst;
+    }
+
+    /** Oblida les eliminacions anteriors al tick indicat. */
+    void prune(long oldestTick) {
+        if (!removedAt.isEmpty()) removedAt.values().removeIf(t -> t <= oldestTick);
+    }
+
+    /** Còpia de l'objecte com a GameObject (per al JSON i les còpies de la sala). */
+    GameObject get(int i) {
+        return new GameObject(ids[i], x[i], y[i], cols[i], rows[i]);
+    }
+
+    /** Escriu l'objecte amb el format de BinaryCodec.Writer.putObject(). */
+    void write(BinaryCodec.Writer w, int i) {
+        w.putObject(idBytes[i], x[i], y[i], cols[i], rows[i]);
+    }
+
+    private void set(int i, int x, int y, int cols, int rows) {
+        this.x[i] = x;
+        this.y[i] = y;
+        this.cols[i] = cols;
+        this.rows[i] = rows;
+    }
+
+    private void grow(int n) {
+        ids = Arrays.copyOf(ids, n);
+        idBytes = Arrays.copyOf(idBytes, n);
+        x = Arrays.copyOf(x, n);
+        y = Arrays.copyOf(y, n);
+        cols = Arrays.copyOf(cols, n);
+        rows = Arrays.copyOf(rows, n);
+        changedAt = Arrays.copyOf(changedAt, n);
+    }
+}
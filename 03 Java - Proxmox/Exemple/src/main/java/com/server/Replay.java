@@ -0,0 +1,156 @@
+package com.server;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.InvalidHandshakeException;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.java_websocket.protocols.Protocol;
+
+import com.shared.BinaryCodec;
+
+/**
+ * Reprodueix un enregistrament de TrafficRecorder en un servidor dins del mateix
+ * procés, sense sockets: cada connexió és un WebSocket fals que descarta el que s'hi
+ * envia, i els esdeveniments es passen directament a onOpen, onMessage i onClose de
+ * Main. Les sales fan els seus ticks com sempre, així que el resultat mesura el cost
+ * real del servidor amb el trànsit enregistrat i serveix per comparar versions.
+ *
+ * Ús: com.server.Replay fitxer [--speed=x] [--metrics=fitxer]
+ *  - speed: 1 reprodueix amb els temps originals, 2 el doble de ràpid... i 0 tan
+ *    ràpid com es pugui (els moviments s'agrupen en menys ticks).
+ *  - metrics: on desar totes les mètriques (format Prometheus) en acabar.
+ */
+public final class Replay {
+
+    /** Temps que es deixa als ticks per enviar els últims canvis abans del resum. */
+    private static final long DRAIN_MILLIS = 500;
+
+    private Replay() {}
+
+    /** Connexió falsa amb el protocol (JSON o binari) negociat com en un handshake real. */
+    private static WebSocket socket(String path, boolean binary) throws InvalidHandshakeException {
+        HandshakeImpl1Client handshake = new HandshakeImpl1Client();
+        handshake.setResourceDescriptor(path);
+        handshake.put("Sec-WebSocket-Version", "13");
+        if (binary) handshake.put("Sec-WebSocket-Protocol", BinaryCodec.PROTOCOL);
+        Draft_6455 draft = new Draft_6455(Collections.emptyList(),
+                List.of(new Protocol(BinaryCodec.PROTOCOL), new Protocol("")));
+        draft.acceptHandshakeAsServer(handshake);
+
+        return (WebSocket) Proxy.newProxyInstance(
+                WebSocket.class.getClassLoader(),
+                new Class<?>[] { WebSocket.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "toString" -> "Replay" + path;
+                    case "getDraft" -> draft;
+                    case "getResourceDescriptor" -> path;
+                    case "isOpen" -> true;
+                    default -> defaultValue(method.getReturnType());
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        return null;
+    }
+
+    private static String option(String[] args, String prefix, String otherwise) {
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) return arg.substring(prefix.length());
+        }
+        return otherwise;
+    }
+
+    /** Punt d'entrada. */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || args[0].startsWith("--")) {
+            System.err.println("Ús: com.server.Replay fitxer [--speed=x] [--metrics=fitxer]");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[0]);
+        double speed = Double.parseDouble(option(args, "--speed=", "1"));
+        String metricsFile = option(args, "--metrics=", null);
+
+        Main server = Main.create(new InetSocketAddress(0)); // no s'arrenca: sense sockets ni diari
+        Map<Integer, WebSocket> conns = new HashMap<>();
+        long events = 0, bytes = 0;
+        long start = System.nanoTime();
+
+        try (TrafficRecorder.Reader in = new TrafficRecorder.Reader(file)) {
+            TrafficRecorder.Event e;
+            while ((e = in.next()) != null) {
+                if (speed > 0) {
+                    long due = start + (long) (TimeUnit.MICROSECONDS.toNanos(e.micros()) / speed);
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+                }
+                events++;
+                bytes += e.payload().length;
+                switch (e.kind()) {
+                    case TrafficRecorder.E_OPEN_JSON, TrafficRecorder.E_OPEN_BINARY -> {
+                        String path = new String(e.payload(), StandardCharsets.UTF_8);
+                        WebSocket conn = socket(path, e.kind() == TrafficRecorder.E_OPEN_BINARY);
+                        conns.put(e.client(), conn);
+                        HandshakeImpl1Client handshake = new HandshakeImpl1Client();
+                        handshake.setResourceDescriptor(path);
+                        server.onOpen(conn, handshake);
+                    }
+                    case TrafficRecorder.E_TEXT -> {
+                        WebSocket conn = conns.get(e.client());
+                        if (conn != null) server.onMessage(conn, new String(e.payload(), StandardCharsets.UTF_8));
+                    }
+                    case TrafficRecorder.E_BINARY -> {
+                        WebSocket conn = conns.get(e.client());
+                        if (conn != null) server.onMessage(conn, ByteBuffer.wrap(e.payload()));
+                    }
+                    case TrafficRecorder.E_CLOSE -> {
+                        WebSocket conn = conns.remove(e.client());
+                        if (conn != null) server.onClose(conn, 1000, "", true);
+                    }
+                    default -> {
+                        // tipus desconegut
+                    }
+                }
+            }
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        Thread.sleep(DRAIN_MILLIS);
+
+        Metrics m = server.metrics;
+        System.out.printf(Locale.ROOT, "Reproduïts %d esdeveniments (%.1f MB) en %.2f s: %.0f esdeveniments/s%n",
+                events, bytes / 1e6, secs, events / secs);
+        System.out.printf(Locale.ROOT, "Ticks: %d  mitjana %.3f ms  p50 <= %s  p99 <= %s%n",
+                m.tickSeconds.count(), m.tickSeconds.meanSeconds() * 1000,
+                ms(m.tickSeconds.percentileSeconds(0.50)), ms(m.tickSeconds.percentileSeconds(0.99)));
+        System.out.printf(Locale.ROOT, "Enviament de l'estat: mitjana %.3f ms  p99 <= %s%n",
+                m.fanoutSeconds.meanSeconds() * 1000, ms(m.fanoutSeconds.percentileSeconds(0.99)));
+        if (metricsFile != null) {
+            Files.writeString(Paths.get(metricsFile), m.render());
+            System.out.println("Mètriques desades a " + metricsFile);
+        }
+        System.exit(0);
+    }
+
+    private static String ms(double seconds) {
+        return Double.isInfinite(seconds) ? "+Inf" : String.format(Locale.ROOT, "%.2f ms", seconds * 1000);
+    }
+}
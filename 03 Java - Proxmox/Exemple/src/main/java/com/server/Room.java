@@ -0,0 +1,709 @@
+package com.server;
+
+import org.java_websocket.WebSocket;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.shared.BinaryCodec;
+import com.shared.GameObject;
+
+/**
+ * Una partida: el seu món, el seu compte enrere i el seu tick.
+ *
+ * Tot l'estat de la sala el toca només el seu tick(). Els fils del WebSocket hi
+ * envien comandes a través de la cua 'commands', que s'aplica al principi de cada
+ * tick. Els moviments i els acks, que són la major part del trànsit, no passen per
+ * la cua: s'escriuen en slots preassignats (InputSlot, ObjectSlot) que el tick
+ * copia al món just després de les comandes. Els clients i els objectes del món
+ * viuen en arrays de primitius (ClientTable, ObjectStore), pensats per a sales amb
+ * desenes de milers d'objectes. El GameLoop de cada sala en crida step() i send() al
+ * pool compartit de RoomManager; com que una sala mai té dues passades programades
+ * alhora, continua sent d'un sol fil encara que el pool en tingui molts.
+ */
+final class Room {
+
+    /** Cada quants ticks s'envia un keyframe complet a tothom. */
+    private static final int KEYFRAME_INTERVAL = 90;
+
+    /** Valor de "baseTick" que indica un keyframe. */
+    static final long KEYFRAME = -1;
+
+    /** Primer valor del compte enrere i temps entre valors. */
+    private static final int COUNTDOWN_START = 5;
+    private static final long COUNTDOWN_STEP_NANOS = 750_000_000L;
+
+    /** Temps que una sala buida es conserva (p. ex. mentre els clients hi tornen després d'un traspàs). */
+    private static final long EMPTY_GRACE_NANOS = 10_000_000_000L;
+
+    /** Identificador de la sala (per als logs i el diari). */
+    final String id;
+
+    /** La clau l'ha fixada la passarel·la (els clients hi tornen amb "/room/<clau>"). */
+    final boolean named;
+
+    /** L'id en UTF-8, per als registres del diari. */
+    private final byte[] journalKey;
+
+    /** Jugadors necessaris per començar. */
+    final int capacity;
+
+    /** Servidor que fa els enviaments. */
+    private final Main server;
+
+    /** Comandes pendents cap a l'estat de la sala (s'apliquen al tick). */
+    private final CommandQueue commands = new CommandQueue();
+
+    /**
+     * Última entrada pendent de cada connexió i de cada objecte. Els moviments no
+     * passen per la cua de comandes: s'escriuen a l'slot (l'últim guanya, i els
+     * substituïts es compten a 'coalescedInputs') i el tick els aplica tots alhora.
+     */
+    private final Map<WebSocket, InputSlot> inputs = new ConcurrentHashMap<>();
+
+    /** Slots dels objectes de la sala; es recrea al fil del tick quan canvien els objectes. */
+    private volatile ObjectSlots objectSlots = ObjectSlots.EMPTY;
+
+    /**
+     * Slots amb un moviment pendent des de l'últim tick (cada un hi és com a molt un
+     * cop), perquè el tick no hagi de repassar tots els objectes. Protegit per 'pendingLock'.
+     */
+    private final Object pendingLock = new Object();
+    private ObjectSlot[] pendingSlots = new ObjectSlot[16];
+    private int pendingCount;
+
+    /** Llista que el tick buida mentre els fils del WebSocket omplen 'pendingSlots'. */
+    private ObjectSlot[] drainingSlots = new ObjectSlot[16];
+
+    /** Moviments descartats perquè n'ha arribat un de més nou abans del tick. */
+    private final LongAdder coalescedInputs = new LongAdder();
+
+    /** Bucle de la sala al pool de RoomManager. */
+    private GameLoop loop;
+
+    // ----- Estat de la sala: només el toca tick() -----
+
+    /** Connexions de la sala i estat de cada client (source of truth del servidor). */
+    private final ClientTable members = new ClientTable();
+
+    /** Objectes seleccionables compartits, amb els seus ticks de canvi i eliminació. */
+    private final ObjectStore gameObjects = new ObjectStore();
+
+    /** Espai de treball de buildStatus per a les posicions dels objectes canviats. */
+    private int[] objectScratch = new int[0];
+
+    /** Hi ha objectes nous o eliminats i cal refer 'objectSlots' abans del següent tick. */
+    private boolean slotsStale = false;
+
+    /**
+     * Ticks en què ha sortit cada client (per calcular deltes). Els canvis dels clients
+     * es guarden a la mateixa ClientTable.
+     */
+    private final ChangeTracker clientChanges = new ChangeTracker();
+
+    /** Últim tick confirmat per cada connexió. Sense entrada, el client rep un keyframe. */
+    private final Map<WebSocket, Long> ackedTicks = new HashMap<>();
+
+    /** Zona d'interès de les connexions que han declarat viewport (les altres ho reben tot). */
+    private final Map<WebSocket, InterestArea> interests = new HashMap<>();
+
+    /** Índex espacial del tick actual (només es construeix si hi ha zones d'interès). */
+    private final InterestGrid interestGrid = new InterestGrid();
+
+    /** Últim tick enviat. Els canvis es marquen amb currentTick + 1. */
+    private long currentTick = 0;
+
+    /** Valor del compte enrere que toca enviar (-1 si no n'hi ha cap en marxa). */
+    private int countdownValue = -1;
+    private long countdownNextNanos;
+
+    /** La partida ha començat (el compte enrere ha arribat a 0). */
+    private volatile boolean started = false;
+
+    /** Des de quan la sala és buida (només té sentit si 'members' és buit). */
+    private long emptySinceNanos = System.nanoTime();
+
+    // ----- Fi de l'estat de la sala -----
+
+    Room(String id, boolean named, int capacity, Main server) {
+        this.id = id;
+        this.named = named;
+        this.capacity = capacity;
+        this.server = server;
+        this.journalKey = id.getBytes(StandardCharsets.UTF_8);
+        server.journal.open(journalKey, named);
+        initializegameObjects();
+    }
+
+    /**
+     * Inicialitza els objectes seleccionables predefinits.
+     */
+    private void initializegameObjects() {
+        gameObjects.put("O0", 300, 50, 4, 1, 0);
+        gameObjects.put("O1", 300, 100, 1, 3, 0);
+        for (int i = 0; i < gameObjects.size(); i++) journalObject(i);
+        rebuildObjectSlots();
+    }
+
+    /** Enregistra al diari la posició actual de l'objecte. */
+    private void journalObject(int i) {
+        server.journal.move(journalKey, gameObjects.idBytes(i), gameObjects.x(i), gameObjects.y(i),
+                gameObjects.cols(i), gameObjects.rows(i));
+    }
+
+    /** Enregistra al diari els objectes indicats, amb la posició que tenen ara. */
+    private void journalObjects(List<GameObject> objects) {
+        for (GameObject obj : objects) {
+            int i = obj.id == null ? -1 : gameObjects.indexOf(obj.id);
+            if (i >= 0) journalObject(i);
+        }
+    }
+
+    /** Un slot per objecte del món. Només des del fil del tick (o del constructor). */
+    private void rebuildObjectSlots() {
+        objectSlots = ObjectSlots.of(gameObjects, objectSlots);
+        slotsStale = false;
+    }
+
+    void setLoop(GameLoop loop) {
+        this.loop = loop;
+    }
+
+    /** Atura el bucle de la sala i la dona per tancada al diari. */
+    void cancel() {
+        if (loop != null) loop.cancel();
+        server.journal.closed(journalKey);
+    }
+
+    /** Indica si la sala s'ha tancat (el seu bucle ja no s'executa). */
+    boolean isClosed() {
+        return loop != null && loop.isCancelled();
+    }
+
+    /** Passades del bucle que han superat el pressupost de la sala. */
+    long overruns() {
+        return loop == null ? 0 : loop.overruns();
+    }
+
+    /** Indica si el compte enrere ja ha acabat. Es pot cridar des de qualsevol fil. */
+    boolean isStarted() {
+        return started;
+    }
+
+    // ----------------- Comandes (qualsevol fil) -----------------
+
+    void join(WebSocket conn, String name, String color) {
+        InputSlot input = new InputSlot();
+        inputs.put(conn, input);
+        commands.submit(() -> {
+            members.add(conn, input, name, BinaryCodec.colorIndex(color), currentTick + 1);
+            clientChanges.changed(name, currentTick + 1); // oblida una sortida anterior amb el mateix nom
+        });
+    }
+
+    void leave(WebSocket conn) {
+        inputs.remove(conn);
+        commands.submit(() -> {
+            String name = members.remove(conn);
+            if (name != null) clientChanges.removed(name, currentTick + 1);
+            ackedTicks.remove(conn);
+            interests.remove(conn);
+            if (members.isEmpty()) emptySinceNanos = System.nanoTime();
+        });
+    }
+
+    /** Moviment del cursor. El nom i el color són els que el servidor ha assignat. */
+    void mouseMoving(WebSocket conn, int mouseX, int mouseY, int row, int col, long seq) {
+        InputSlot slot = inputs.get(conn);
+        if (slot == null) return;
+        if (slot.offerMouse(mouseX, mouseY, row, col)) coalescedInputs.increment();
+        slot.offerSeq(seq);
+    }
+
+    /**
+     * Número de seqüència d'una entrada de la connexió que ja s'ha deixat al seu slot.
+     * El tick el retorna al client quan l'aplica. (Les entrades que passen per la cua
+     * de comandes porten el número dins la comanda: veure objectMoving(WebSocket, GameObject, long).)
+     */
+    void inputSeq(WebSocket conn, long seq) {
+        if (seq <= 0) return;
+        InputSlot slot = inputs.get(conn);
+        if (slot != null) slot.offerSeq(seq);
+    }
+
+    /** Slot de l'objecte amb l'id del missatge, o null si la sala no el té. */
+    ObjectSlot objectSlot(InputScanner in) {
+        return objectSlots.find(in);
+    }
+
+    /** Igual que objectSlot(InputScanner), amb l'id com a següent cadena del missatge binari. */
+    ObjectSlot objectSlot(BinaryCodec.Reader in) {
+        return objectSlots.find(in);
+    }
+
+    void objectMoving(ObjectSlot slot, int x, int y, int cols, int rows) {
+        if (slot.offer(x, y, cols, rows)) {
+            coalescedInputs.increment();
+            return;
+        }
+        synchronized (pendingLock) {
+            if (pendingCount == pendingSlots.length) pendingSlots = Arrays.copyOf(pendingSlots, pendingCount * 2);
+            pendingSlots[pendingCount++] = slot;
+        }
+    }
+
+    /** Moviment d'un objecte que la sala encara no té: el crea. */
+    void objectMoving(GameObject objData) {
+        objectMoving(null, objData, 0);
+    }
+
+    /**
+     * Com objectMoving(GameObject), amb el número de seqüència de l'entrada de 'conn'.
+     * El número s'anota quan la comanda crea l'objecte, no abans: si no, el tick el
+     * podria retornar un pas abans que l'objecte existeixi.
+     */
+    void objectMoving(WebSocket conn, GameObject objData, long seq) {
+        if (objData.id == null) return;
+        InputSlot input = seq > 0 && conn != null ? inputs.get(conn) : null;
+        commands.submit(() -> {
+            if (gameObjects.put(objData.id, objData.x, objData.y, objData.col, objData.row, currentTick + 1)) {
+                slotsStale = true;
+            }
+            journalObject(gameObjects.indexOf(objData.id));
+            if (input != null) input.offerSeq(seq);
+        });
+    }
+
+    /**
+     * Afegeix (o mou) molts objectes alhora. Els slots es refan un sol cop, al tick.
+     */
+    void addObjects(List<GameObject> objects) {
+        commands.submit(() -> {
+            if (gameObjects.putAll(objects, currentTick + 1) > 0) slotsStale = true;
+            journalObjects(objects);
+        });
+    }
+
+    /** Elimina molts objectes alhora; els clients els reben com a "removedObjects". */
+    void removeObjects(Collection<String> ids) {
+        commands.submit(() -> {
+            for (String id : ids) {
+                if (gameObjects.remove(id, currentTick + 1)) {
+                    slotsStale = true;
+                    server.journal.remove(journalKey, id.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        });
+    }
+
+    /** Moviments descartats per coalescència des que existeix la sala. */
+    long coalescedInputs() {
+        return coalescedInputs.sum();
+    }
+
+    /**
+     * Declara (o treu, si la mida no és positiva) el viewport d'una connexió. En
+     * canviar de mode el client rep un keyframe, perquè el que tenia ja no quadra
+     * amb el que rebrà. El viewport es retalla a la zona de l'InterestGrid (el tauler
+     * i el seu marge): fora d'aquí no hi ha res indexat, i la mida la decideix el client.
+     */
+    void viewport(WebSocket conn, int x, int y, int width, int height) {
+        commands.submit(() -> {
+            if (members.indexOf(conn) < 0) return;
+            if (width <= 0 || height <= 0) {
+                if (interests.remove(conn) != null) ackedTicks.remove(conn);
+                return;
+            }
+            int left = clamp(x, InterestGrid.MIN_X, InterestGrid.MAX_X);
+            int top = clamp(y, InterestGrid.MIN_Y, InterestGrid.MAX_Y);
+            int right = clamp((long) x + width, InterestGrid.MIN_X, InterestGrid.MAX_X);
+            int bottom = clamp((long) y + height, InterestGrid.MIN_Y, InterestGrid.MAX_Y);
+            InterestArea area = interests.get(conn);
+            if (area == null) {
+                interests.put(conn, new InterestArea(left, top, right - left, bottom - top));
+                ackedTicks.remove(conn);
+            } else {
+                area.setViewport(left, top, right - left, bottom - top);
+            }
+        });
+    }
+
+    private static int clamp(long v, int min, int max) {
+        return (int) Math.max(min, Math.min(max, v));
+    }
+
+    /**
+     * Demana una còpia de l'estat persistent de la sala (objectes i si ha començat).
+     * El callback s'executa al fil del tick.
+     */
+    void snapshot(Consumer<JSONObject> callback) {
+        commands.submit(() -> {
+            JSONArray arrObjects = new JSONArray();
+            for (int i = 0, n = gameObjects.size(); i < n; i++) arrObjects.put(gameObjects.get(i).toJSON());
+            callback.accept(new JSONObject()
+                    .put(Main.K_STARTED, started)
+                    .put(Main.K_OBJECTS_LIST, arrObjects));
+        });
+    }
+
+    /** Substitueix l'estat de la sala pel d'una còpia feta amb snapshot(). */
+    void restore(JSONObject snapshot) {
+        List<GameObject> objects = new ArrayList<>();
+        JSONArray arrObjects = snapshot.optJSONArray(Main.K_OBJECTS_LIST);
+        if (arrObjects != null) {
+            for (int i = 0; i < arrObjects.length(); i++) objects.add(GameObject.fromJSON(arrObjects.getJSONObject(i)));
+        }
+        restore(snapshot.optBoolean(Main.K_STARTED, false), objects);
+    }
+
+    /** Substitueix els objectes de la sala (i la dona per començada si cal). */
+    void restore(boolean started, List<GameObject> objects) {
+        commands.submit(() -> {
+            gameObjects.clear(currentTick + 1);
+            server.journal.clear(journalKey);
+            gameObjects.putAll(objects, currentTick + 1);
+            journalObjects(objects);
+            rebuildObjectSlots();
+            if (started) markStarted();
+        });
+    }
+
+    /**
+     * Demana l'estat de la sala en el format dels checkpoints de WorldJournal.
+     * El callback s'executa al fil del tick.
+     */
+    void checkpoint(Consumer<byte[]> callback) {
+        commands.submit(() -> callback.accept(WorldJournal.encodeRoom(id, named, started, gameObjects)));
+    }
+
+    void ack(WebSocket conn, long tick) {
+        if (tick < 0) return;
+        InputSlot slot = inputs.get(conn);
+        if (slot != null) slot.offerAck(tick);
+    }
+
+    private void markStarted() {
+        if (started) return;
+        started = true;
+        server.journal.started(journalKey);
+    }
+
+    // ----------------- Tick (fil del pool) -----------------
+
+    /**
+     * Un pas de simulació: aplica les comandes i les entrades i avança el compte enrere.
+     *
+     * @return false si la sala fa més de EMPTY_GRACE_NANOS que és buida
+     */
+    boolean step() {
+        commands.drain();
+        if (slotsStale) rebuildObjectSlots();
+        applyInputs();
+        if (members.isEmpty()) {
+            return System.nanoTime() - emptySinceNanos < EMPTY_GRACE_NANOS;
+        }
+        updateCountdown();
+        return true;
+    }
+
+    /** Envia l'estat als clients (un tick del protocol). */
+    void send() {
+        if (members.isEmpty()) return;
+        long start = System.nanoTime();
+        broadcastStatus();
+        server.metrics.fanoutSeconds.observeNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * Un pas de simulació seguit d'un enviament (per als benchmarks).
+     *
+     * @return el resultat de step()
+     */
+    boolean tick() {
+        boolean alive = step();
+        send();
+        return alive;
+    }
+
+    /**
+     * Copia al món els moviments i acks pendents dels slots.
+     *
+     * El número de seqüència de cada client es llegeix abans de buidar cap slot: els
+     * fils del WebSocket el desen després de l'entrada, així que totes les entrades fins
+     * a aquest número s'apliquen en aquest mateix pas (i potser alguna de posterior, que
+     * el client ja té en compte en tornar a aplicar les seves entrades pendents).
+     */
+    private void applyInputs() {
+        for (int i = 0, n = members.size(); i < n; i++) {
+            InputSlot slot = members.input(i);
+            members.setSeq(i, slot.seq(), currentTick + 1);
+            slot.takeMouse(members, i, currentTick + 1);
+
+            // Un tick futur no és vàlid (p. ex. un ack d'una sala anterior a un traspàs)
+            long acked = slot.takeAck();
+            if (acked >= 0 && acked <= currentTick) ackedTicks.merge(members.conn(i), acked, Math::max);
+        }
+
+        ObjectSlot[] moved;
+        int count;
+        synchronized (pendingLock) {
+            moved = pendingSlots;
+            count = pendingCount;
+            pendingSlots = drainingSlots;
+            pendingCount = 0;
+        }
+        drainingSlots = moved;
+        for (int k = 0; k < count; k++) {
+            ObjectSlot slot = moved[k];
+            moved[k] = null;
+            int i = gameObjects.indexOf(slot.id);
+            if (slot.takeInto(gameObjects, i, currentTick + 1)) journalObject(i);
+        }
+    }
+
+    /**
+     * Envia el compte enrere (5..0) a la sala quan està plena.
+     * Es cancel·la si baixa el nombre de clients abans d'arribar a 0.
+     */
+    private void updateCountdown() {
+        if (started) return;
+
+        if (members.size() < capacity) {
+            countdownValue = -1;
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (countdownValue < 0) {
+            countdownValue = COUNTDOWN_START;
+            countdownNextNanos = now;
+        }
+        if (now < countdownNextNanos) return;
+
+        int n = countdownValue;
+        JSONObject rst = Main.msg(Main.T_COUNTDOWN).put(Main.K_VALUE, n);
+        String json = rst.toString();
+        ByteBuffer binary = BinaryCodec.encodeCountdown(n);
+        for (int i = 0, size = members.size(); i < size; i++) {
+            server.sendSafe(Main.T_COUNTDOWN, members.conn(i), json, binary);
+        }
+
+        if (n == 0) {
+            markStarted();
+        } else {
+            countdownValue = n - 1;
+            countdownNextNanos = now + COUNTDOWN_STEP_NANOS;
+        }
+    }
+
+    /**
+     * Envia l'estat del tick actual a cada client de la sala.
+     *
+     * Cada client rep un delta respecte l'últim tick que ha confirmat, o un keyframe
+     * si acaba d'entrar, si la seva base és massa antiga o si toca keyframe global.
+     * Els clients s'agrupen per tick base i protocol: cada grup comparteix el mateix
+     * missatge, que es serialitza i es codifica en frames un sol cop amb broadcast().
+     * Els clients amb zona d'interès reben un missatge propi amb només el que veuen.
+     * Els deltes buits no s'envien. Els clients amb un enllaç lent (veure LinkMonitor)
+     * només reben un de cada 'divisor' ticks; com que el delta es calcula respecte el
+     * que han confirmat, no es perden cap canvi.
+     */
+    private void broadcastStatus() {
+        long tick = ++currentTick;
+        boolean keyframeTick = tick % KEYFRAME_INTERVAL == 0;
+        long oldestBase = tick - KEYFRAME_INTERVAL;
+
+        if (!interests.isEmpty()) buildInterestGrid();
+
+        Map<Long, List<WebSocket>> jsonByBase = new HashMap<>();
+        Map<Long, List<WebSocket>> binaryByBase = new HashMap<>();
+        for (int i = 0, n = members.size(); i < n; i++) {
+            WebSocket conn = members.conn(i);
+            if (tick % server.links.divisor(conn) != 0) continue; // enllaç lent: rep menys ticks
+            Long acked = ackedTicks.get(conn);
+            long base = (keyframeTick || acked == null || acked < oldestBase) ? KEYFRAME : acked;
+
+            InterestArea area = interests.get(conn);
+            if (area != null) {
+                area.update(interestGrid, members.name(i), tick);
+                area.prune(oldestBase);
+                Status st = buildStatus(tick, base, area);
+                if (st.isEmpty()) continue;
+                if (server.isBinary(conn)) server.sendSafe(Main.T_SERVER_DATA, conn, st.toBinary());
+                else server.sendSafe(Main.T_SERVER_DATA, conn, st.toJSON().toString());
+                continue;
+            }
+
+            Map<Long, List<WebSocket>> groups = server.isBinary(conn) ? binaryByBase : jsonByBase;
+            groups.computeIfAbsent(base, b -> new ArrayList<>()).add(conn);
+        }
+
+        Map<Long, Status> statusByBase = new HashMap<>();
+        for (Map.Entry<Long, List<WebSocket>> e : jsonByBase.entrySet()) {
+            Status st = statusByBase.computeIfAbsent(e.getKey(), b -> buildStatus(tick, b));
+            if (st.isEmpty()) continue; // res de nou per a aquest grup
+            server.broadcast(Main.T_SERVER_DATA, st.toJSON().toString(), e.getValue());
+        }
+        for (Map.Entry<Long, List<WebSocket>> e : binaryByBase.entrySet()) {
+            Status st = statusByBase.computeIfAbsent(e.getKey(), b -> buildStatus(tick, b));
+            if (st.isEmpty()) continue;
+            server.broadcast(Main.T_SERVER_DATA, st.toBinary(), e.getValue());
+        }
+
+        clientChanges.prune(oldestBase);
+        gameObjects.prune(oldestBase);
+    }
+
+    /**
+     * Selecciona les entitats que formen l'estat d'un tick respecte una base.
+     *
+     * @param tick tick actual
+     * @param base tick base confirmat pel client, o KEYFRAME per l'estat complet
+     * @return estat a enviar (pot ser un delta buit)
+     */
+    private Status buildStatus(long tick, long base) {
+        boolean keyframe = base == KEYFRAME;
+
+        int[] changedClients = new int[members.size()];
+        int clientCount = 0;
+        for (int i = 0, n = members.size(); i < n; i++) {
+            if (keyframe || members.changedSince(i, base)) changedClients[clientCount++] = i;
+        }
+
+        // Els deltes només reserven l'espai dels objectes que han canviat
+        if (objectScratch.length < gameObjects.size()) objectScratch = new int[gameObjects.size()];
+        int objectCount = gameObjects.changedSince(base, objectScratch);
+        int[] changedObjects = Arrays.copyOf(objectScratch, objectCount);
+
+        List<String> removedClients = keyframe ? List.of() : clientChanges.removedSince(base);
+        List<String> removedObjects = keyframe ? List.of() : gameObjects.removedSince(base);
+
+        return new Status(tick, base, members, changedClients, clientCount,
+                gameObjects, changedObjects, objectCount, removedClients, removedObjects);
+    }
+
+    /** Indexa la posició actual de tots els cursors i objectes. */
+    private void buildInterestGrid() {
+        interestGrid.clear();
+        for (int i = 0, n = members.size(); i < n; i++) {
+            interestGrid.addClient(members.name(i), members.mouseX(i), members.mouseY(i));
+        }
+        for (int i = 0, n = gameObjects.size(); i < n; i++) {
+            interestGrid.addObject(gameObjects.id(i), gameObjects.x(i), gameObjects.y(i),
+                    gameObjects.cols(i), gameObjects.rows(i));
+        }
+    }
+
+    /**
+     * Com buildStatus(tick, base), però limitat al que hi ha dins la zona d'interès.
+     * Una entitat s'envia si ha canviat o si ha entrat a la vista després de la base;
+     * les que n'han sortit (o s'han eliminat) s'envien com a eliminades.
+     */
+    private Status buildStatus(long tick, long base, InterestArea area) {
+        boolean keyframe = base == KEYFRAME;
+
+        int[] changedClients = new int[members.size()];
+        int clientCount = 0;
+        Set<String> visible = area.visibleClients();
+        for (int i = 0, n = members.size(); i < n; i++) {
+            String name = members.name(i);
+            if (!visible.contains(name)) continue;
+            if (keyframe || members.changedSince(i, base) || area.clientVisibility.changedSince(name, base)) {
+                changedClients[clientCount++] = i;
+            }
+        }
+
+        Set<String> visibleObjects = area.visibleObjects();
+        int[] changedObjects = new int[visibleObjects.size()];
+        int objectCount = 0;
+        for (String id : visibleObjects) {
+            int i = gameObjects.indexOf(id);
+            if (i < 0) continue;
+            if (keyframe || gameObjects.changedSince(i, base) || area.objectVisibility.changedSince(id, base)) {
+                changedObjects[objectCount++] = i;
+            }
+        }
+
+        // Una baixa del món també és una sortida de la vista (l'entitat ja no és a l'índex)
+        List<String> removedClients = keyframe ? List.of() : area.clientVisibility.removedSince(base);
+        List<String> removedObjects = keyframe ? List.of() : area.objectVisibility.removedSince(base);
+
+        return new Status(tick, base, members, changedClients, clientCount,
+                gameObjects, changedObjects, objectCount, removedClients, removedObjects);
+    }
+
+    /**
+     * Estat d'un tick respecte una base, codificable en JSON o en binari. Els clients i
+     * els objectes són posicions de la ClientTable i de l'ObjectStore, així que s'ha de
+     * codificar en el mateix tick.
+     */
+    private record Status(long tick, long base,
+                          ClientTable table, int[] clients, int clientCount,
+                          ObjectStore store, int[] objects, int objectCount,
+                          List<String> removedClients, List<String> removedObjects) {
+
+        boolean isEmpty() {
+            return base != KEYFRAME && clientCount == 0 && objectCount == 0
+                && removedClients.isEmpty() && removedObjects.isEmpty();
+        }
+
+        JSONObject toJSON() {
+            JSONArray arrClients = new JSONArray();
+            for (int k = 0; k < clientCount; k++) {
+                int i = clients[k];
+                arrClients.put(new JSONObject()
+                        .put(Main.K_NAME, table.name(i))
+                        .put(Main.K_COLOR, BinaryCodec.colorName(table.color(i)))
+                        .put(Main.K_MOUSE_X, table.mouseX(i))
+                        .put(Main.K_MOUSE_Y, table.mouseY(i))
+                        .put(Main.K_ROW, table.row(i))
+                        .put(Main.K_COL, table.col(i))
+                        .put(Main.K_SEQ, table.seq(i)));
+            }
+
+            JSONArray arrObjects = new JSONArray();
+            for (int k = 0; k < objectCount; k++) arrObjects.put(store.get(objects[k]).toJSON());
+
+            return Main.msg(Main.T_SERVER_DATA)
+                    .put(Main.K_TICK, tick)
+                    .put(Main.K_BASE_TICK, base)
+                    .put(Main.K_CLIENTS_LIST, arrClients)
+                    .put(Main.K_OBJECTS_LIST, arrObjects)
+                    .put(Main.K_REMOVED_CLIENTS, new JSONArray(removedClients))
+                    .put(Main.K_REMOVED_OBJECTS, new JSONArray(removedObjects));
+        }
+
+        /** Mateix format que BinaryCodec.encodeServerData, escrit directament des de les taules. */
+        ByteBuffer toBinary() {
+            BinaryCodec.Writer w = new BinaryCodec.Writer(BinaryCodec.T_SERVER_DATA,
+                    16 + clientCount * 24 + objectCount * 16);
+            w.putVarLong(tick).putVarLong(base < 0 ? 0 : base + 1);
+            w.putVarLong(clientCount);
+            for (int k = 0; k < clientCount; k++) {
+                int i = clients[k];
+                w.putClient(table.name(i), table.color(i), table.mouseX(i), table.mouseY(i), table.row(i), table.col(i),
+                        table.seq(i));
+            }
+            w.putVarLong(objectCount);
+            for (int k = 0; k < objectCount; k++) store.write(w, objects[k]);
+            w.putVarLong(removedClients.size());
+            for (String name : removedClients) w.putString(name);
+            w.putVarLong(removedObjects.size());
+            for (String id : removedObjects) w.putString(id);
+            return w.toByteBuffer();
+        }
+    }
+}
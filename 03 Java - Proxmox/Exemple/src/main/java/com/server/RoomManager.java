@@ -0,0 +1,251 @@
+package com.server;
+
+import org.java_websocket.WebSocket;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.json.JSONObject;
+
+import com.shared.GameObject;
+
+/**
+ * Aparella els clients en sales i programa el bucle de joc (GameLoop) de cada sala.
+ *
+ * Un client nou entra a la primera sala oberta (no començada i amb places lliures);
+ * si no n'hi ha cap, se'n crea una. Els clients que arriben amb una clau de sala
+ * (via la passarel·la, veure com.gateway.Main) entren a la sala amb aquella clau.
+ * Tots els bucles s'executen en un pool compartit
+ * amb tants fils com nuclis, de manera que un sol procés pot mantenir milers de
+ * partides petites sense un fil per partida.
+ */
+final class RoomManager {
+
+    private final Main server;
+    private final int roomSize;
+    private final ScheduledExecutorService scheduler;
+
+    /** Ritmes de simulació i d'enviament de les sales noves. */
+    private volatile GameLoop.Timing timing;
+
+    /** Sala de cada connexió. */
+    private final Map<WebSocket, Room> roomBySocket = new ConcurrentHashMap<>();
+
+    /** Places ocupades per sala (protegit per 'this'). */
+    private final Map<Room, Integer> occupied = new HashMap<>();
+
+    /** Sales que encara accepten jugadors, en ordre de creació (protegit per 'this'). */
+    private final List<Room> openRooms = new ArrayList<>();
+
+    /** Sales amb clau fixada per la passarel·la (protegit per 'this'). */
+    private final Map<String, Room> namedRooms = new HashMap<>();
+
+    private int nextRoomId = 1;
+
+    /**
+     * @param server servidor que fa els enviaments
+     * @param roomSize jugadors per sala
+     * @param timing ritmes de simulació i d'enviament de cada sala
+     */
+    RoomManager(Main server, int roomSize, GameLoop.Timing timing) {
+        this.server = server;
+        this.roomSize = roomSize;
+        this.timing = timing;
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory tf = r -> {
+            Thread t = new Thread(r, "RoomTicker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        this.scheduler = Executors.newScheduledThreadPool(threads, tf);
+    }
+
+    /**
+     * Afegeix el client a la sala amb la clau indicada, o n'hi assigna una si és null.
+     *
+     * @return sala assignada
+     */
+    synchronized Room join(WebSocket conn, String name, String color, String roomKey) {
+        if (roomKey == null) return join(conn, name, color);
+
+        Room room = namedRoom(roomKey);
+        occupied.merge(room, 1, Integer::sum);
+        roomBySocket.put(conn, room);
+        room.join(conn, name, color);
+        return room;
+    }
+
+    /**
+     * Assigna una sala al client i l'hi afegeix.
+     *
+     * @return sala assignada
+     */
+    synchronized Room join(WebSocket conn, String name, String color) {
+        Room room = null;
+        Iterator<Room> it = openRooms.iterator();
+        while (it.hasNext()) {
+            Room r = it.next();
+            if (r.isStarted() || occupied.get(r) >= roomSize) {
+                it.remove();
+            } else {
+                room = r;
+                break;
+            }
+        }
+        if (room == null) {
+            room = createRoom("R" + nextRoomId++, false);
+            openRooms.add(room);
+        }
+
+        int seats = occupied.merge(room, 1, Integer::sum);
+        if (seats >= roomSize) openRooms.remove(room);
+
+        roomBySocket.put(conn, room);
+        room.join(conn, name, color);
+        return room;
+    }
+
+    /**
+     * Treu el client de la seva sala. La sala torna a acceptar jugadors si encara no ha començat.
+     */
+    void leave(WebSocket conn) {
+        Room room = roomBySocket.remove(conn);
+        if (room == null) return;
+        room.leave(conn);
+
+        synchronized (this) {
+            Integer seats = occupied.computeIfPresent(room, (r, n) -> n - 1);
+            if (seats != null && !room.isStarted() && !namedRooms.containsValue(room)
+                    && !openRooms.contains(room)) {
+                openRooms.add(room);
+            }
+        }
+    }
+
+    /** Sala on és la connexió, o null. */
+    Room roomOf(WebSocket conn) {
+        return roomBySocket.get(conn);
+    }
+
+    /**
+     * Demana l'estat d'una sala amb clau. Si no existeix, el callback rep null.
+     */
+    void snapshot(String roomKey, Consumer<JSONObject> callback) {
+        Room room;
+        synchronized (this) {
+            room = namedRooms.get(roomKey);
+        }
+        if (room == null) callback.accept(null);
+        else room.snapshot(callback);
+    }
+
+    /**
+     * Crea (si cal) la sala amb clau i hi carrega l'estat rebut. La restauració
+     * s'encua abans de qualsevol entrada de jugador posterior.
+     */
+    synchronized void restore(String roomKey, JSONObject snapshot) {
+        namedRoom(roomKey).restore(snapshot);
+    }
+
+    private Room namedRoom(String roomKey) {
+        Room room = namedRooms.get(roomKey);
+        if (room == null) {
+            room = createRoom(roomKey, true);
+            namedRooms.put(roomKey, room);
+        }
+        return room;
+    }
+
+    /**
+     * Torna a crear una sala recuperada del diari (veure WorldJournal.recover()).
+     *
+     * Només les sales amb clau de la passarel·la sobreviuen a un reinici tal com eren:
+     * els jugadors hi tornen amb la mateixa clau. Una sala sense clau que encara no
+     * havia començat torna a la llista de sales obertes, com una sala nova amb els
+     * seus objectes. Una sala sense clau ja començada no es recrea: ningú no hi podria
+     * tornar a entrar (els clients directes sempre van a una sala oberta), i només
+     * faria ticks fins a tancar-se buida. Com qualsevol sala, les recuperades es tanquen
+     * si ningú hi entra.
+     */
+    synchronized void recover(WorldJournal.RoomState state) {
+        // Les sales noves no poden repetir l'id d'una de recuperada, tampoc d'una de
+        // descartada: fins al proper checkpoint els seus registres continuen al diari
+        if (!state.named && state.key.matches("R\\d+")) {
+            nextRoomId = Math.max(nextRoomId, Integer.parseInt(state.key.substring(1)) + 1);
+        }
+        if (!state.named && state.started) return; // el proper checkpoint ja no la inclourà
+
+        List<GameObject> objects = new ArrayList<>(state.objects.size());
+        for (int i = 0; i < state.objects.size(); i++) objects.add(state.objects.get(i));
+
+        Room room = createRoom(state.key, state.named);
+        if (state.named) {
+            namedRooms.put(state.key, room);
+        } else {
+            openRooms.add(room);
+        }
+        room.restore(state.started, objects);
+    }
+
+    /** Canvia els ritmes de les sales que es creïn a partir d'ara. */
+    void setTiming(GameLoop.Timing timing) {
+        this.timing = timing;
+    }
+
+    /** Sales actives (còpia). */
+    synchronized List<Room> all() {
+        return new ArrayList<>(occupied.keySet());
+    }
+
+    /** Nombre de sales actives. */
+    synchronized int roomCount() {
+        return occupied.size();
+    }
+
+    private Room createRoom(String id, boolean named) {
+        Room room = new Room(id, named, roomSize, server);
+        occupied.put(room, 0);
+
+        // Es reparteix l'inici dels bucles dins del període per no fer-los coincidir
+        GameLoop.Timing t = timing;
+        long initialDelay = ((occupied.size() + nextRoomId) * 7_919_000L) % t.stepNanos();
+        GameLoop loop = new GameLoop(room, scheduler, t, server.metrics, () -> closeIfEmpty(room));
+        room.setLoop(loop);
+        loop.start(initialDelay);
+        return room;
+    }
+
+    /** Tanca la sala si no hi ha cap plaça ocupada (ni cap entrada pendent). */
+    private synchronized void closeIfEmpty(Room room) {
+        Integer seats = occupied.get(room);
+        if (seats == null || seats > 0) return;
+        occupied.remove(room);
+        openRooms.remove(room);
+        namedRooms.remove(room.id, room);
+        room.cancel();
+        System.out.println("Sala " + room.id + " tancada (" + room.coalescedInputs() + " moviments agrupats, "
+                + room.overruns() + " passades fora de pressupost)");
+    }
+
+    /** Atura tots els bucles. */
+    void shutdown() {
+        try {
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
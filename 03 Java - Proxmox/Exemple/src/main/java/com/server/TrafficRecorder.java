@@ -0,0 +1,169 @@
+package com.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.java_websocket.WebSocket;
+
+/**
+ * Enregistra el trànsit d'entrada del servidor (connexions, missatges i desconnexions)
+ * per reproduir-lo després amb Replay.
+ *
+ * Format: [i32 MAGIC][i32 VERSION] i un esdeveniment rere l'altre:
+ * [varint microsegons des de l'inici][u8 tipus][varint connexió][varint mida][bytes].
+ * Les connexions es numeren en ordre d'arribada; els bytes són la ruta del handshake
+ * (E_OPEN_*), el text en UTF-8 (E_TEXT) o el missatge binari tal qual (E_BINARY).
+ *
+ * Els fils del WebSocket hi escriuen sota un lock, en un buffer gran que només es
+ * buida al disc quan s'omple i en tancar-lo.
+ */
+final class TrafficRecorder {
+
+    static final int MAGIC = 0x47524543; // "GREC"
+    static final int VERSION = 1;
+
+    // Tipus d'esdeveniment
+    static final int E_OPEN_JSON = 1;
+    static final int E_OPEN_BINARY = 2;
+    static final int E_TEXT = 3;
+    static final int E_BINARY = 4;
+    static final int E_CLOSE = 5;
+
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final DataOutputStream out;
+    private final long startNanos = System.nanoTime();
+
+    private final Map<WebSocket, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    private boolean failed;
+
+    TrafficRecorder(Path file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_BYTES));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    void open(WebSocket conn, String path, boolean binary) {
+        int id = nextId.getAndIncrement();
+        ids.put(conn, id);
+        byte[] bytes = (path == null ? "" : path).getBytes(StandardCharsets.UTF_8);
+        write(binary ? E_OPEN_BINARY : E_OPEN_JSON, id, bytes, 0, bytes.length);
+    }
+
+    void text(WebSocket conn, String message) {
+        Integer id = ids.get(conn);
+        if (id == null) return;
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        write(E_TEXT, id, bytes, 0, bytes.length);
+    }
+
+    /** Enregistra el missatge sense moure'n la posició. */
+    void binary(WebSocket conn, ByteBuffer message) {
+        Integer id = ids.get(conn);
+        if (id == null) return;
+        if (message.hasArray()) {
+            write(E_BINARY, id, message.array(), message.arrayOffset() + message.position(), message.remaining());
+        } else {
+            byte[] bytes = new byte[message.remaining()];
+            message.duplicate().get(bytes);
+            write(E_BINARY, id, bytes, 0, bytes.length);
+        }
+    }
+
+    void close(WebSocket conn) {
+        Integer id = ids.remove(conn);
+        if (id != null) write(E_CLOSE, id, null, 0, 0);
+    }
+
+    private synchronized void write(int kind, int id, byte[] bytes, int offset, int length) {
+        if (failed) return;
+        try {
+            writeVarLong(out, (System.nanoTime() - startNanos) / 1_000);
+            out.writeByte(kind);
+            writeVarLong(out, id);
+            writeVarLong(out, length);
+            if (length > 0) out.write(bytes, offset, length);
+        } catch (IOException e) {
+            failed = true; // el servidor continua sense enregistrar
+            System.err.println("S'ha aturat l'enregistrament del trànsit: " + e.getMessage());
+        }
+    }
+
+    /** Buida el buffer i tanca el fitxer. */
+    synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Error en tancar l'enregistrament del trànsit: " + e.getMessage());
+        }
+        failed = true;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    // ----------------- Lectura (Replay) -----------------
+
+    /** Un esdeveniment enregistrat. */
+    record Event(long micros, int kind, int client, byte[] payload) {}
+
+    /** Llegeix els esdeveniments d'un enregistrament, en ordre. */
+    static final class Reader implements AutoCloseable {
+        private final DataInputStream in;
+
+        Reader(Path file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_BYTES));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                in.close();
+                throw new IOException("No és un enregistrament de trànsit: " + file);
+            }
+        }
+
+        /** Següent esdeveniment, o null al final (o si l'últim està tallat). */
+        Event next() throws IOException {
+            try {
+                long micros = readVarLong();
+                int kind = in.readUnsignedByte();
+                int client = (int) readVarLong();
+                byte[] payload = new byte[(int) readVarLong()];
+                in.readFully(payload);
+                return new Event(micros, kind, client, payload);
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        private long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("Varint massa llarg");
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
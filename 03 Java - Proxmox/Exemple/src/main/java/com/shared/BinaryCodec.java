@@ -0,0 +1,348 @@
+package com.shared;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Protocol binari compacte (versió 2) per als missatges del joc.
+ *
+ * Es negocia amb la capçalera Sec-WebSocket-Protocol (PROTOCOL); si el servidor
+ * o el client no el coneixen, la connexió continua amb JSON.
+ *
+ * Format de cada missatge: [u8 versió][u8 tipus][cos]
+ *  - Enters sense signe (mides, comptadors, ticks): varint LEB128
+ *  - Cadenes: varint amb la mida en bytes + UTF-8
+ *  - ClientData: [nom][u8 color][i16 mouseX][i16 mouseY][i16 row][i16 col][seq]
+ *  - GameObject: [id][i16 x][i16 y][u16 cols][u16 rows]
+ *  - Viewport: [i16 x][i16 y][u16 width][u16 height]
+ *  - Colors: índex a PALETTE (NO_COLOR si no hi és)
+ *  - seq: varint amb el número de seqüència d'una entrada del client (0 si no en porta);
+ *    al clientMouseMoving va dins del ClientData, al clientObjectMoving darrere l'objecte,
+ *    i al serverData és l'última entrada que el servidor ha aplicat de cada client
+ *
+ * La versió 2 hi afegeix els números de seqüència (predicció del client).
+ */
+public final class BinaryCodec {
+
+    /** Nom del subprotocol WebSocket. */
+    public static final String PROTOCOL = "game.bin.v2";
+
+    public static final int VERSION = 2;
+
+    // Tipus de missatge
+    public static final int T_CLIENT_NAME = 1;              // server -> client
+    public static final int T_SERVER_DATA = 2;              // server -> clients
+    public static final int T_COUNTDOWN = 3;                // server -> clients
+    public static final int T_CLIENT_MOUSE_MOVING = 16;     // client -> server
+    public static final int T_CLIENT_OBJECT_MOVING = 17;    // client -> server
+    public static final int T_CLIENT_ACK = 18;              // client -> server
+    public static final int T_CLIENT_VIEWPORT = 19;         // client -> server
+
+    /** Colors coneguts; al cable només viatja l'índex. */
+    public static final List<String> PALETTE = Arrays.asList(
+        "GREEN", "ORANGE", "RED", "GRAY", "PURPLE", "YELLOW", "BLUE", "PINK", "BROWN", "BLACK"
+    );
+
+    /** Índex per a colors nuls o desconeguts. */
+    public static final int NO_COLOR = 0xFF;
+
+    private BinaryCodec() {}
+
+    public static int colorIndex(String color) {
+        if (color == null) return NO_COLOR;
+        for (int i = 0; i < PALETTE.size(); i++) {
+            if (PALETTE.get(i).equalsIgnoreCase(color)) return i;
+        }
+        return NO_COLOR;
+    }
+
+    public static String colorName(int index) {
+        return (index >= 0 && index < PALETTE.size()) ? PALETTE.get(index) : null;
+    }
+
+    // ----------------- Missatges -----------------
+
+    public static ByteBuffer encodeClientName(String name) {
+        return new Writer(T_CLIENT_NAME).putString(name).toByteBuffer();
+    }
+
+    public static ByteBuffer encodeCountdown(int value) {
+        return new Writer(T_COUNTDOWN).putVarLong(value).toByteBuffer();
+    }
+
+    public static ByteBuffer encodeMouseMoving(ClientData cd) {
+        return new Writer(T_CLIENT_MOUSE_MOVING).putClient(cd).toByteBuffer();
+    }
+
+    public static ByteBuffer encodeObjectMoving(GameObject go, long seq) {
+        return new Writer(T_CLIENT_OBJECT_MOVING).putObject(go).putVarLong(seq).toByteBuffer();
+    }
+
+    public static ByteBuffer encodeAck(long tick) {
+        return new Writer(T_CLIENT_ACK).putVarLong(tick).toByteBuffer();
+    }
+
+    public static ByteBuffer encodeViewport(int x, int y, int width, int height) {
+        return new Writer(T_CLIENT_VIEWPORT).putShort(x).putShort(y).putUShort(width).putUShort(height).toByteBuffer();
+    }
+
+    /**
+     * Codifica un serverData (keyframe si baseTick és negatiu).
+     * Layout: [tick][baseTick + 1][n][clients][n][objects][n][removedClients][n][removedObjects]
+     */
+    public static ByteBuffer encodeServerData(long tick, long baseTick,
+                                              Collection<ClientData> clients, Collection<GameObject> objects,
+                                              Collection<String> removedClients, Collection<String> removedObjects) {
+        Writer w = new Writer(T_SERVER_DATA, 16 + clients.size() * 24 + objects.size() * 16);
+        w.putVarLong(tick).putVarLong(baseTick < 0 ? 0 : baseTick + 1);
+        w.putVarLong(clients.size());
+        for (ClientData cd : clients) w.putClient(cd);
+        w.putVarLong(objects.size());
+        for (GameObject go : objects) w.putObject(go);
+        w.putVarLong(removedClients.size());
+        for (String name : removedClients) w.putString(name);
+        w.putVarLong(removedObjects.size());
+        for (String id : removedObjects) w.putString(id);
+        return w.toByteBuffer();
+    }
+
+    // ----------------- Escriptura -----------------
+
+    /** Escriptor amb buffer que creix segons cal. */
+    public static final class Writer {
+        private ByteBuffer buf;
+
+        public Writer(int type) {
+            this(type, 32);
+        }
+
+        public Writer(int type, int capacity) {
+            buf = ByteBuffer.allocate(Math.max(capacity, 8));
+            buf.put((byte) VERSION).put((byte) type);
+        }
+
+        private void ensure(int n) {
+            if (buf.remaining() >= n) return;
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + n));
+            buf.flip();
+            bigger.put(buf);
+            buf = bigger;
+        }
+
+        public Writer putByte(int v) {
+            ensure(1);
+            buf.put((byte) v);
+            return this;
+        }
+
+        public Writer putShort(int v) {
+            ensure(2);
+            buf.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v)));
+            return this;
+        }
+
+        public Writer putUShort(int v) {
+            ensure(2);
+            buf.putShort((short) Math.max(0, Math.min(0xFFFF, v)));
+            return this;
+        }
+
+        public Writer putVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf.put((byte) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            buf.put((byte) v);
+            return this;
+        }
+
+        public Writer putString(String s) {
+            return putUtf8((s == null ? "" : s).getBytes(StandardCharsets.UTF_8));
+        }
+
+        /** Igual que putString(), amb la cadena ja codificada en UTF-8. */
+        public Writer putUtf8(byte[] bytes) {
+            putVarLong(bytes.length);
+            ensure(bytes.length);
+            buf.put(bytes);
+            return this;
+        }
+
+        public Writer putClient(ClientData cd) {
+            return putClient(cd.name, colorIndex(cd.color), cd.mouseX, cd.mouseY, cd.row, cd.col, cd.seq);
+        }
+
+        /** Igual que putClient(ClientData), amb el color ja com a índex de PALETTE. */
+        public Writer putClient(String name, int color, int mouseX, int mouseY, int row, int col, long seq) {
+            putString(name);
+            putByte(color);
+            putShort(mouseX);
+            putShort(mouseY);
+            putShort(row);
+            putShort(col);
+            return putVarLong(Math.max(0, seq));
+        }
+
+        public Writer putObject(GameObject go) {
+            putString(go.id);
+            return putShort(go.x).putShort(go.y).putUShort(go.col).putUShort(go.row);
+        }
+
+        /** Igual que putObject(GameObject), amb l'id ja codificat en UTF-8. */
+        public Writer putObject(byte[] id, int x, int y, int cols, int rows) {
+            putUtf8(id);
+            return putShort(x).putShort(y).putUShort(cols).putUShort(rows);
+        }
+
+        /** Retorna el missatge preparat per enviar (posició 0, límit al final). */
+        public ByteBuffer toByteBuffer() {
+            ByteBuffer out = buf.duplicate();
+            out.flip();
+            return out;
+        }
+    }
+
+    // ----------------- Lectura -----------------
+
+    /**
+     * Lector sobre un missatge rebut; valida la versió en crear-se.
+     * Es pot reutilitzar amb reset() per no reservar memòria per missatge.
+     */
+    public static final class Reader {
+        private ByteBuffer buf;
+        private int type;
+
+        public Reader(ByteBuffer message) {
+            start(message.duplicate());
+        }
+
+        /** Lector buit, per reutilitzar-lo amb reset(). */
+        public Reader() {
+        }
+
+        /** Comença a llegir un missatge nou, directament sobre el buffer (n'avança la posició). */
+        public Reader reset(ByteBuffer message) {
+            start(message);
+            return this;
+        }
+
+        private void start(ByteBuffer message) {
+            this.buf = message;
+            int version = buf.get() & 0xFF;
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Versió de protocol binari no suportada: " + version);
+            }
+            this.type = buf.get() & 0xFF;
+        }
+
+        public int type() {
+            return type;
+        }
+
+        public int getByte() {
+            return buf.get() & 0xFF;
+        }
+
+        public int getShort() {
+            return buf.getShort();
+        }
+
+        public int getUShort() {
+            return buf.getShort() & 0xFFFF;
+        }
+
+        public long getVarLong() {
+            long v = 0;
+            int shift = 0;
+            while (true) {
+                byte b = buf.get();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+                shift += 7;
+                if (shift > 63) throw new IllegalArgumentException("Varint massa llarg");
+            }
+        }
+
+        public int getCount() {
+            long n = getVarLong();
+            if (n > buf.remaining()) throw new IllegalArgumentException("Comptador invàlid: " + n);
+            return (int) n;
+        }
+
+        public String getString() {
+            int len = getCount();
+            if (!buf.hasArray()) {
+                byte[] bytes = new byte[len];
+                buf.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            String s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+            buf.position(buf.position() + len);
+            return s;
+        }
+
+        /** Salta una cadena sense decodificar-la. */
+        public void skipString() {
+            int len = getCount();
+            buf.position(buf.position() + len);
+        }
+
+        /** Indica si la següent cadena és igual al text (només ASCII), sense consumir-la. */
+        public boolean nextStringIs(String expected) {
+            int start = buf.position();
+            try {
+                int len = getCount();
+                if (len != expected.length()) return false;
+                int p = buf.position();
+                for (int i = 0; i < len; i++) {
+                    if ((buf.get(p + i) & 0xFF) != expected.charAt(i)) return false;
+                }
+                return true;
+            } finally {
+                buf.position(start);
+            }
+        }
+
+        /**
+         * Hash de la següent cadena, igual que String.hashCode() si és ASCII, sense
+         * consumir-la ni crear-la.
+         */
+        public int nextStringHash() {
+            int start = buf.position();
+            try {
+                int len = getCount();
+                int p = buf.position();
+                int h = 0;
+                for (int i = 0; i < len; i++) h = 31 * h + (buf.get(p + i) & 0xFF);
+                return h;
+            } finally {
+                buf.position(start);
+            }
+        }
+
+        public ClientData getClient() {
+            String name = getString();
+            String color = colorName(getByte());
+            int mouseX = getShort();
+            int mouseY = getShort();
+            int row = getShort();
+            int col = getShort();
+            ClientData cd = new ClientData(name, color, mouseX, mouseY, row, col);
+            cd.seq = getVarLong();
+            return cd;
+        }
+
+        public GameObject getObject() {
+            String id = getString();
+            int x = getShort();
+            int y = getShort();
+            int cols = getUShort();
+            int rows = getUShort();
+            return new GameObject(id, x, y, cols, rows);
+        }
+    }
+}
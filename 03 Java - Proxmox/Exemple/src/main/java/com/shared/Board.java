@@ -0,0 +1,23 @@
+package com.shared;
+
+/**
+ * Geometria del tauler, compartida pel client (PlayGrid) i el servidor.
+ *
+ * Les posicions dels cursors i dels objectes són en píxels del canvas; la mida
+ * d'un objecte es mesura en cel·les de CELL_SIZE píxels.
+ */
+public final class Board {
+
+    /** Cantonada superior esquerra de la graella. */
+    public static final int START_X = 25;
+    public static final int START_Y = 25;
+
+    /** Mida d'una cel·la en píxels. */
+    public static final int CELL_SIZE = 25;
+
+    /** Files i columnes de la graella. */
+    public static final int ROWS = 10;
+    public static final int COLS = 10;
+
+    private Board() {}
+}
@@ -1,5 +1,7 @@
 package com.shared;
 
+import java.util.Objects;
+
 import org.json.JSONObject;
 
 public class ClientData {
@@ -9,6 +11,8 @@ public class ClientData {
     public int mouseY;
     public int row;
     public int col;
+    // Última entrada d'aquest client que el servidor ha aplicat (0 si cap), per a la predicció del client
+    public long seq;
 
     public ClientData(String name, String color) {
         this.name = name;
@@ -28,6 +32,21 @@ public class ClientData {
         this.col = col;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ClientData)) return false;
+        ClientData other = (ClientData) o;
+        return mouseX == other.mouseX && mouseY == other.mouseY
+            && row == other.row && col == other.col && seq == other.seq
+            && Objects.equals(name, other.name) && Objects.equals(color, other.color);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, color, mouseX, mouseY, row, col, seq);
+    }
+
     @Override
     public String toString() {
         return this.toJSON().toString();
@@ -42,6 +61,7 @@ public class ClientData {
         obj.put("mouseY", mouseY);
         obj.put("row", row);
         obj.put("col", col);
+        obj.put("seq", seq);
         return obj;
     }
 
@@ -55,6 +75,7 @@ public class ClientData {
         cd.mouseY = obj.optInt("mouseY", -1);
         cd.row = obj.optInt("row", -1);
         cd.col = obj.optInt("col", -1);
+        cd.seq = obj.optLong("seq", 0);
         return cd;
     }
 }
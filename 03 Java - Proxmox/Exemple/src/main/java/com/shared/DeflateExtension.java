@@ -0,0 +1,132 @@
+package com.shared;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+
+/**
+ * Extensió permessage-deflate (RFC 7692) amb un llindar de mida: els missatges més
+ * petits que 'threshold' bytes (moviments de cursor, acks...) s'envien sense comprimir.
+ *
+ * A diferència de PerMessageDeflateExtension, de la qual hereta la negociació i la
+ * descompressió:
+ *  - Cada missatge es comprimeix sense context (el Deflater es reinicia després de
+ *    cada missatge). El resultat només depèn del contingut, així que és vàlid per a
+ *    qualsevol receptor encara que aquest hagi negociat context takeover.
+ *  - Un frame que ja porta RSV1 ja està comprimit i no es torna a comprimir. Així el
+ *    frame compartit de WebSocketServer.broadcast() es comprimeix amb la primera
+ *    connexió de la llista i la resta l'envien tal qual (la classe base el comprimiria
+ *    un altre cop per a cada connexió, i el corrompria).
+ *  - Respecta la posició i el límit del ByteBuffer del frame.
+ *
+ * Només es comprimeixen els missatges d'un sol frame (els que creen Draft_6455 i
+ * broadcast()); els fragmentats s'envien sense comprimir.
+ *
+ * Totes les còpies (una per connexió) comparteixen les mateixes estadístiques.
+ */
+public final class DeflateExtension extends PerMessageDeflateExtension {
+
+    /** Llindar per defecte: per sota, la capçalera del deflate no compensa. */
+    public static final int DEFAULT_THRESHOLD = 256;
+
+    /** Bytes 00 00 ff ff que afegeix SYNC_FLUSH i que el receptor torna a posar. */
+    private static final int TAIL_LENGTH = 4;
+
+    /** Comptadors de compressió (compartits entre totes les connexions). */
+    public static final class Stats {
+        /** Missatges comprimits (un per broadcast, no per destinatari). */
+        public final LongAdder compressed = new LongAdder();
+        /** Missatges per sota del llindar, enviats sense comprimir. */
+        public final LongAdder skipped = new LongAdder();
+        /** Enviaments d'un frame que una altra connexió ja havia comprimit. */
+        public final LongAdder reused = new LongAdder();
+        /** Bytes abans i després de comprimir. */
+        public final LongAdder bytesIn = new LongAdder();
+        public final LongAdder bytesOut = new LongAdder();
+        /** Temps de CPU dedicat a comprimir. */
+        public final LongAdder nanos = new LongAdder();
+
+        /** Mida comprimida respecte l'original (1 si no s'ha comprimit res). */
+        public double ratio() {
+            long in = bytesIn.sum();
+            return in == 0 ? 1 : (double) bytesOut.sum() / in;
+        }
+    }
+
+    private final int threshold;
+    private final Stats stats;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private byte[] scratch = new byte[1024];
+
+    public DeflateExtension() {
+        this(DEFAULT_THRESHOLD, new Stats());
+    }
+
+    /**
+     * @param threshold mida mínima (bytes de càrrega) per comprimir un missatge
+     * @param stats on comptar la compressió de totes les connexions
+     */
+    public DeflateExtension(int threshold, Stats stats) {
+        this.threshold = threshold;
+        this.stats = stats;
+        setThreshold(threshold);
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    @Override
+    public synchronized void encodeFrame(Framedata frame) {
+        if (!(frame instanceof DataFrame data)) return;
+        if (frame.isRSV1()) {
+            stats.reused.increment();
+            return;
+        }
+        ByteBuffer payload = frame.getPayloadData();
+        if (!frame.isFin() || data.getOpcode() == Opcode.CONTINUOUS
+                || payload.remaining() < threshold) {
+            stats.skipped.increment();
+            return;
+        }
+
+        long start = System.nanoTime();
+        int in = payload.remaining();
+        deflater.setInput(payload.duplicate());
+        int n = 0;
+        while (true) {
+            n += deflater.deflate(scratch, n, scratch.length - n, Deflater.SYNC_FLUSH);
+            if (n < scratch.length) break;
+            scratch = Arrays.copyOf(scratch, scratch.length * 2);
+        }
+        deflater.reset(); // sense context: cada missatge es pot descomprimir sol
+        if (n >= TAIL_LENGTH && scratch[n - 4] == 0 && scratch[n - 3] == 0
+                && scratch[n - 2] == (byte) 0xFF && scratch[n - 1] == (byte) 0xFF) {
+            n -= TAIL_LENGTH;
+        }
+        data.setPayload(ByteBuffer.wrap(Arrays.copyOf(scratch, n)));
+        data.setRSV1(true);
+
+        stats.nanos.add(System.nanoTime() - start);
+        stats.compressed.increment();
+        stats.bytesIn.add(in);
+        stats.bytesOut.add(n);
+    }
+
+    @Override
+    public IExtension copyInstance() {
+        return new DeflateExtension(threshold, stats);
+    }
+
+    @Override
+    public String toString() {
+        return "DeflateExtension(threshold=" + threshold + ")";
+    }
+}
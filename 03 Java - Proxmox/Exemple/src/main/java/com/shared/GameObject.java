@@ -1,5 +1,7 @@
 package com.shared;
 
+import java.util.Objects;
+
 import org.json.JSONObject;
 
 public class GameObject {
@@ -17,6 +19,20 @@ public class GameObject {
         this.row = rows;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof GameObject)) return false;
+        GameObject other = (GameObject) o;
+        return x == other.x && y == other.y && col == other.col && row == other.row
+            && Objects.equals(id, other.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, x, y, col, row);
+    }
+
     @Override
     public String toString() {
         return this.toJSON().toString();
@@ -0,0 +1,97 @@
+package com.shared;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latències en microsegons, amb un error relatiu inferior a l'1%.
+ *
+ * Els valors de 0 a SUB-1 tenen un bucket cadascun. A partir d'aquí cada potència de
+ * dos es divideix en SUB/2 buckets (com HdrHistogram), així que l'histograma ocupa
+ * pocs KB sigui quin sigui el rang. record() no reserva memòria i es pot cridar des
+ * de qualsevol fil; els comptes es poden llegir alhora des d'un altre.
+ *
+ * El fan servir la prova de càrrega (latència dels moviments) i el client (temps de
+ * frame). Per a percentils d'una finestra, sense buidar l'histograma, es compara una
+ * còpia dels comptes (snapshot()) amb una d'anterior.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 7;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int HALF = SUB / 2;
+
+    /** Buckets fins a valors de 2^63 (no se'n fan servir tants, però no cal comprovar-ho). */
+    private final AtomicLongArray counts = new AtomicLongArray(SUB + (64 - SUB_BITS) * HALF);
+
+    public void record(long micros) {
+        counts.incrementAndGet(index(Math.max(0, micros)));
+    }
+
+    /** Buida l'histograma (els valors que s'hi registren alhora poden anar a qualsevol dels dos costats). */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+    }
+
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) total += counts.get(i);
+        return total;
+    }
+
+    public int buckets() {
+        return counts.length();
+    }
+
+    public long count(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /** Còpia dels comptes, per calcular percentils d'una finestra (vegeu percentile(long[], long[], double)). */
+    public long[] snapshot() {
+        long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++) copy[i] = counts.get(i);
+        return copy;
+    }
+
+    /**
+     * Valor per sota del qual hi ha la fracció 'p' de les mostres (p. ex. 0.99).
+     *
+     * @return microsegons (límit superior del bucket), o 0 si no hi ha mostres
+     */
+    public long percentile(double p) {
+        return percentile(snapshot(), new long[counts.length()], p);
+    }
+
+    /**
+     * Com percentile(double), però només amb les mostres registrades entre les còpies
+     * 'since' i 'now' de snapshot().
+     *
+     * @return microsegons (límit superior del bucket), o 0 si no hi ha mostres
+     */
+    public static long percentile(long[] now, long[] since, double p) {
+        long total = 0;
+        for (int i = 0; i < now.length; i++) total += now[i] - since[i];
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < now.length; i++) {
+            seen += now[i] - since[i];
+            if (seen >= target) return upperBound(i);
+        }
+        return upperBound(now.length - 1);
+    }
+
+    private static int index(long v) {
+        if (v < SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS + 1; // v >> shift queda a [HALF, SUB)
+        return SUB + (shift - 1) * HALF + (int) ((v >> shift) - HALF);
+    }
+
+    /** Límit superior, en microsegons, del bucket 'index'. */
+    public static long upperBound(int index) {
+        if (index < SUB) return index;
+        int shift = (index - SUB) / HALF + 1;
+        long mantissa = (index - SUB) % HALF + HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}